@@ -0,0 +1,202 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java bean inputs. JXPath finds bean properties through their getters, so the getters are named after the paths of
+ * the configs, such as get_src for _src and getString_value for string_value.
+ */
+final class Beans {
+
+    private Beans() {
+    }
+
+    static Message message(int count) {
+        Message message = new Message();
+        for (int i = 0; i < count; i++) {
+            message.strValues.add("value" + i);
+            message.images.add(new Image(i));
+        }
+
+        return message;
+    }
+
+    static Feed feed(int count) {
+        Feed feed = new Feed();
+        for (int i = 0; i < count; i++) {
+            feed.rss.channel.item.add(new Item(i));
+        }
+
+        return feed;
+    }
+
+    public static class Message {
+
+        private final List<String> strValues = new ArrayList<>();
+        private final List<Image> images = new ArrayList<>();
+        private final Image image = new Image(0);
+        private final Src src = new Src();
+        private final Select select = new Select();
+
+        public String get_src() {
+            return "src";
+        }
+
+        public Src getSrc() {
+            return src;
+        }
+
+        public String getString_value() {
+            return "string_value";
+        }
+
+        public int getInt_value() {
+            return 100;
+        }
+
+        public long getLong_value() {
+            return 1000L;
+        }
+
+        public boolean getBool_value() {
+            return true;
+        }
+
+        public String getEnum_value() {
+            return "FIRST";
+        }
+
+        public List<String> getStr_values() {
+            return strValues;
+        }
+
+        public Select getSelect() {
+            return select;
+        }
+
+        public Image getImage() {
+            return image;
+        }
+
+        public List<Image> getImages() {
+            return images;
+        }
+    }
+
+    public static class Src {
+
+        public String getPath() {
+            return "src/path";
+        }
+    }
+
+    public static class Select {
+
+        public String getNested() {
+            return "select/nested";
+        }
+    }
+
+    public static class Image {
+
+        private final String url;
+
+        Image(int i) {
+            this.url = "http://l.yimg.com/image" + i + ".png";
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getType() {
+            return "png";
+        }
+
+        public int getHeight() {
+            return 100;
+        }
+
+        public int getWidth() {
+            return 150;
+        }
+    }
+
+    public static class Feed {
+
+        private final Rss rss = new Rss();
+
+        public Rss getRss() {
+            return rss;
+        }
+    }
+
+    public static class Rss {
+
+        private final Channel channel = new Channel();
+
+        public Channel getChannel() {
+            return channel;
+        }
+    }
+
+    public static class Channel {
+
+        private final List<Item> item = new ArrayList<>();
+
+        public List<Item> getItem() {
+            return item;
+        }
+    }
+
+    public static class Item {
+
+        private final String id;
+        private final String link;
+        private final String description;
+
+        Item(int i) {
+            this.id = "ARI" + i;
+            this.link = "http://shine.yahoo.com/horoscope/aries/overview-daily-" + i + ".html";
+            this.description = "See if you can get your friends or colleagues to follow along, item " + i;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getSign() {
+            return "ARI";
+        }
+
+        public String getLabel() {
+            return "Aries";
+        }
+
+        public String getTitle() {
+            return "Daily Overview for Aries";
+        }
+
+        public String getLink() {
+            return link;
+        }
+
+        public String getPubDate() {
+            return "Tue, 07 May 2013 00:00:00 +0000";
+        }
+
+        public String getAuthor() {
+            return "Astrology.com";
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+}
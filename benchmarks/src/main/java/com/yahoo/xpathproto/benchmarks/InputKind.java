@@ -0,0 +1,182 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.benchmarks;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The kinds of input a builder is given, each producing the same synthetic data for the message of
+ * transformerconfig.json and the feed of transform_horoscope_config.json.
+ */
+public enum InputKind {
+
+    /** Maps and lists, as read by Jackson from JSON. */
+    MAP {
+        @Override
+        public Object message(Size size) {
+            return fromJson(messageData(size));
+        }
+
+        @Override
+        public Object feed(Size size) {
+            return fromJson(feedData(size));
+        }
+    },
+
+    /** A DOM tree, as parsed from XML. The message is given as its root element, the feed as the document. */
+    DOM {
+        @Override
+        public Object message(Size size) {
+            return toDocument("message", messageData(size)).getDocumentElement();
+        }
+
+        @Override
+        public Object feed(Size size) {
+            return toDocument("rss", (Map<String, Object>) feedData(size).get("rss"));
+        }
+    },
+
+    /** Java beans. */
+    BEAN {
+        @Override
+        public Object message(Size size) {
+            return Beans.message(size.getCount());
+        }
+
+        @Override
+        public Object feed(Size size) {
+            return Beans.feed(size.getCount());
+        }
+    };
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * @return the input for the test_transform definition of transformerconfig.json
+     */
+    public abstract Object message(Size size);
+
+    /**
+     * @return the input for the rss_transform definition of transform_horoscope_config.json
+     */
+    public abstract Object feed(Size size);
+
+    static Map<String, Object> messageData(Size size) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("_src", "src");
+        message.put("src", map("path", "src/path"));
+        message.put("string_value", "string_value");
+        message.put("int_value", 100);
+        message.put("long_value", 1000L);
+        message.put("bool_value", true);
+        message.put("enum_value", "FIRST");
+        message.put("select", map("nested", "select/nested"));
+        message.put("image", image(0));
+
+        List<Object> values = new ArrayList<>();
+        List<Object> images = new ArrayList<>();
+        for (int i = 0; i < size.getCount(); i++) {
+            values.add("value" + i);
+            images.add(image(i));
+        }
+        message.put("str_values", values);
+        message.put("images", images);
+
+        return message;
+    }
+
+    static Map<String, Object> feedData(Size size) {
+        List<Object> items = new ArrayList<>();
+        for (int i = 0; i < size.getCount(); i++) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", "ARI" + i);
+            item.put("sign", "ARI");
+            item.put("label", "Aries");
+            item.put("title", "Daily Overview for Aries");
+            item.put("link", "http://shine.yahoo.com/horoscope/aries/overview-daily-" + i + ".html");
+            item.put("pubDate", "Tue, 07 May 2013 00:00:00 +0000");
+            item.put("author", "Astrology.com");
+            item.put("description", "See if you can get your friends or colleagues to follow along, item " + i);
+            items.add(item);
+        }
+
+        return map("rss", map("channel", map("item", items)));
+    }
+
+    private static Map<String, Object> image(int i) {
+        Map<String, Object> image = map("url", "http://l.yimg.com/image" + i + ".png");
+        image.put("type", "png");
+        image.put("height", 100);
+        image.put("width", 150);
+        return image;
+    }
+
+    private static Map<String, Object> map(String key, Object value) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(key, value);
+        return map;
+    }
+
+    /**
+     * Round trips the data through JSON, so the input has the exact types Jackson gives.
+     */
+    private static Object fromJson(Map<String, Object> data) {
+        try {
+            return mapper.readValue(mapper.writeValueAsBytes(data), Map.class);
+        } catch (final java.io.IOException e) {
+            throw new RuntimeException("Failed to convert the input to JSON", e);
+        }
+    }
+
+    private static Document toDocument(String root, Map<String, Object> data) {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().newDocument();
+        } catch (final ParserConfigurationException e) {
+            throw new RuntimeException("Failed to create a document", e);
+        }
+
+        Element element = document.createElement(root);
+        document.appendChild(element);
+        appendChildren(document, element, data);
+        return document;
+    }
+
+    private static void appendChildren(Document document, Element parent, Map<String, Object> data) {
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (entry.getValue() instanceof List) {
+                for (Object value : (List<?>) entry.getValue()) {
+                    appendChild(document, parent, entry.getKey(), value);
+                }
+            } else {
+                appendChild(document, parent, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static void appendChild(Document document, Element parent, String name, Object value) {
+        Element element = document.createElement(name);
+        parent.appendChild(element);
+        if (value instanceof Map) {
+            appendChildren(document, element, (Map<String, Object>) value);
+        } else {
+            element.setTextContent(value.toString());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.Message;
+import com.yahoo.xpathproto.ProtoBuilder;
+
+/**
+ * Measures {@link ProtoBuilder#build(Object)} on the test_transform definition of transformerconfig.json and the
+ * rss_transform definition of transform_horoscope_config.json, for every input kind and size.
+ * <p>
+ * The builders are shared by all threads, the way an application uses them, while every thread has its own input: a
+ * DOM tree is not safe to read from several threads at once. {@link #main(String[])} runs the benchmarks with the gc
+ * profiler, which reports the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtoBuilderBenchmark {
+
+    private final ProtoBuilder messageBuilder = new ProtoBuilder("/testdata/transformerconfig.json", "test_transform");
+    private final ProtoBuilder feedBuilder =
+        new ProtoBuilder("/testdata/transform_horoscope_config.json", "rss_transform");
+
+    @State(Scope.Thread)
+    public static class Input {
+
+        @Param({"SMALL", "MEDIUM", "LARGE"})
+        public Size size;
+
+        @Param({"MAP", "DOM", "BEAN"})
+        public InputKind kind;
+
+        Object message;
+        Object feed;
+
+        @Setup
+        public void setUp() {
+            message = kind.message(size);
+            feed = kind.feed(size);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Message message(Input input) {
+        return messageBuilder.build(input.message);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Message messageShared(Input input) {
+        return messageBuilder.build(input.message);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Message feed(Input input) {
+        return feedBuilder.build(input.feed);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Message feedShared(Input input) {
+        return feedBuilder.build(input.feed);
+    }
+
+    /**
+     * Runs the benchmarks of this class with the gc profiler. Other JMH command line options, such as -p, are passed
+     * on.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+            .include(ProtoBuilderBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,25 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.benchmarks;
+
+/**
+ * The size of a synthetic input: the number of images and string values of a message, or of items of a feed.
+ */
+public enum Size {
+    SMALL(2),
+    MEDIUM(50),
+    LARGE(1000);
+
+    private final int count;
+
+    Size(int count) {
+        this.count = count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
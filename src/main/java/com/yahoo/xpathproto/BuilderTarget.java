@@ -0,0 +1,191 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageLite;
+
+/**
+ * A target that populates a message builder, through the setters of the given engine.
+ * <p>
+ * A nested message of a singular field is written straight into the field builder of the parent, so it is neither
+ * built nor copied; if it turns out to miss a required field the previous value of the field is put back. A nested
+ * message of a repeated field is populated in a builder from {@link Message.Builder#newBuilderForField} and built
+ * once. Whether a nested message is initialized is decided once, when it is complete: the required fields of its own
+ * level are checked, and its nested messages are not checked again since only initialized ones were kept.
+ * <p>
+ * Values of a repeated field are added with the generated addAllXxx method of the builder when it has one, so a large
+ * repeated field costs one list copy rather than one reflective call per value. The nested messages of a repeated
+ * definition are collected while they are built and added together before anything else is written to the builder.
+ */
+final class BuilderTarget extends MessageTarget {
+
+    private final Message.Builder builder;
+    private final ProtoBuilder.Engine engine;
+    private final List<Descriptors.FieldDescriptor> requiredFields;
+    // whether the builder is the field builder of a singular field of the parent
+    private final boolean fieldBuilder;
+    // the value that field had before its field builder was taken, restored if the nested message is dropped
+    private final Message previous;
+    // whether a message that may be uninitialized was written by something other than a nested definition
+    private boolean unchecked;
+    private CompiledConfig.Entry pendingEntry;
+    private List<Object> pending;
+
+    BuilderTarget(Message.Builder builder, ProtoBuilder.Engine engine) {
+        this(builder, engine, null, false, null);
+    }
+
+    private BuilderTarget(Message.Builder builder, ProtoBuilder.Engine engine,
+                    List<Descriptors.FieldDescriptor> requiredFields, boolean fieldBuilder, Message previous) {
+        this.builder = builder;
+        this.engine = engine;
+        this.requiredFields = requiredFields;
+        this.fieldBuilder = fieldBuilder;
+        this.previous = previous;
+    }
+
+    Message.Builder getBuilder() {
+        flush();
+        return builder;
+    }
+
+    @Override
+    void set(CompiledConfig.Entry entry, Object value) {
+        flush();
+        check(value);
+        entry.getSetter(engine).set(builder, value);
+    }
+
+    @Override
+    void addAll(CompiledConfig.Entry entry, List<?> values) {
+        flush();
+        for (Object value : values) {
+            check(value);
+        }
+        add(entry, values);
+    }
+
+    private void check(Object value) {
+        if (value instanceof MessageLite && !unchecked) {
+            unchecked = !((MessageLite) value).isInitialized();
+        }
+    }
+
+    private void add(CompiledConfig.Entry entry, List<?> values) {
+        FieldSetter.BulkAdder bulkAdder = entry.getBulkAdder();
+        if (values.size() > 1 && bulkAdder != null && bulkAdder.addAll(builder, values)) {
+            return;
+        }
+
+        FieldSetter setter = entry.getSetter(engine);
+        for (Object value : values) {
+            setter.set(builder, value);
+        }
+    }
+
+    @Override
+    MessageTarget startMessage(CompiledConfig.Entry entry) {
+        CompiledConfig.Definition definition = entry.getDefinition();
+        if (definition.getPrototype() == null) {
+            return this;
+        }
+
+        Descriptors.FieldDescriptor field = entry.getField();
+        List<Descriptors.FieldDescriptor> required = definition.getRequiredFields();
+        if (field == null || field.getMessageType() != definition.getDescriptor()) {
+            return new BuilderTarget(definition.getPrototype().newBuilderForType(), engine, required, false, null);
+        }
+
+        if (field.isRepeated() || !(builder instanceof GeneratedMessage.Builder)) {
+            // only generated builders give field builders, and only for singular fields
+            return new BuilderTarget(builder.newBuilderForField(field), engine, required, false, null);
+        }
+
+        flush();
+        Message previous = null;
+        if (builder.hasField(field)) {
+            // a nested message replaces the value of the field, as setField does, rather than merging into it
+            previous = (Message) builder.getField(field);
+            builder.clearField(field);
+        }
+
+        return new BuilderTarget(builder.getFieldBuilder(field), engine, required, true, previous);
+    }
+
+    @Override
+    void endMessage(CompiledConfig.Entry entry, MessageTarget nested) {
+        if (nested == this || entry.getField() == null) {
+            return;
+        }
+
+        BuilderTarget target = (BuilderTarget) nested;
+        Message.Builder innerBuilder = target.getBuilder();
+        boolean initialized = target.isInitialized();
+        if (!entry.isRepeated()) {
+            if (target.fieldBuilder) {
+                if (!initialized) {
+                    restore(entry.getField(), target.previous);
+                }
+            } else if (initialized) {
+                flush();
+                entry.getSetter(engine).set(builder, innerBuilder.buildPartial());
+            }
+            return;
+        }
+
+        if (!initialized) {
+            return;
+        }
+
+        if (pendingEntry != entry) {
+            flush();
+            pendingEntry = entry;
+            if (pending == null) {
+                pending = new ArrayList<>();
+            }
+        }
+        pending.add(innerBuilder.buildPartial());
+    }
+
+    /**
+     * Whether all required fields of the message are set. Nested messages are only checked if they were not written
+     * through a nested target.
+     */
+    private boolean isInitialized() {
+        for (Descriptors.FieldDescriptor field : requiredFields) {
+            if (!builder.hasField(field)) {
+                return false;
+            }
+        }
+
+        return !unchecked || builder.isInitialized();
+    }
+
+    private void restore(Descriptors.FieldDescriptor field, Message value) {
+        if (value == null) {
+            builder.clearField(field);
+        } else {
+            builder.setField(field, value);
+        }
+    }
+
+    /**
+     * Adds the pending nested messages to the builder.
+     */
+    private void flush() {
+        if (pendingEntry != null) {
+            add(pendingEntry, pending);
+            pendingEntry = null;
+            pending.clear();
+        }
+    }
+}
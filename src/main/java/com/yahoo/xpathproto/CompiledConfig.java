@@ -0,0 +1,346 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import org.apache.commons.jxpath.CompiledExpression;
+import org.apache.commons.jxpath.JXPathContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.yahoo.xpathproto.dataobject.Config;
+
+/**
+ * An immutable, pre-resolved form of a {@link Config}. Every entry already holds its target field descriptor, handler
+ * instance, message prototype and path kind, so transforming a record does not need to interpret the config again.
+ * Instances are created with {@link #compile(Config)} and can be shared between threads.
+ */
+public final class CompiledConfig {
+
+    /**
+     * The way an entry is applied to the target message.
+     */
+    public enum Kind {
+        /** The entry maps its path through a nested definition. */
+        DEFINITION,
+        /** The entry is resolved by a custom handler. */
+        HANDLER,
+        /** The entry copies a variable ("$name" path) into the target field. */
+        VARIABLE,
+        /** The entry copies the value(s) found at its path into the target field. */
+        SCALAR
+    }
+
+    /**
+     * Compiles the given config. All definitions that name a proto are compiled, along with every definition that is
+     * reachable from them.
+     *
+     * @param config - the loaded config
+     * @return the compiled config
+     */
+    public static CompiledConfig compile(Config config) {
+        return new ConfigCompiler(config).compile();
+    }
+
+    private final Config config;
+    private final Map<String, Definition> definitions;
+    private final int weight;
+
+    CompiledConfig(Config config, Map<String, Definition> definitions, int weight) {
+        this.config = config;
+        this.definitions = Collections.unmodifiableMap(definitions);
+        this.weight = weight;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the number of compiled definitions and entries, used to bound the memory held by a
+     *         {@link ConfigRegistry}.
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Gives the compiled top level definition with the given name.
+     *
+     * @param definitionName - the definition name in the config
+     * @return the compiled definition
+     */
+    public Definition getDefinition(String definitionName) {
+        Definition definition = definitions.get(definitionName);
+        if (null == definition) {
+            if (config.definitions.containsKey(definitionName)) {
+                throw new IllegalArgumentException("proto class must be specified at the top level definition name: "
+                                + definitionName);
+            }
+            throw new IllegalArgumentException("Cannot find transform definition: " + definitionName);
+        }
+
+        return definition;
+    }
+
+    /**
+     * @return the compiled top level definitions.
+     */
+    Collection<Definition> getDefinitions() {
+        return definitions.values();
+    }
+
+    public static final class Definition {
+
+        private final String name;
+        private final Message prototype;
+        private final Descriptors.Descriptor descriptor;
+        private final VariableSlots variableSlots;
+        private final List<Descriptors.FieldDescriptor> requiredFields;
+        private List<Entry> entries = Collections.emptyList();
+        private volatile JsonSelection jsonSelection;
+        private volatile boolean jsonSelectionResolved;
+
+        Definition(String name, Message prototype, Descriptors.Descriptor descriptor, VariableSlots variableSlots) {
+            this.name = name;
+            this.prototype = prototype;
+            this.descriptor = descriptor;
+            this.variableSlots = variableSlots;
+
+            List<Descriptors.FieldDescriptor> required = new ArrayList<>();
+            for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+                if (field.isRequired()) {
+                    required.add(field);
+                }
+            }
+            this.requiredFields = Collections.unmodifiableList(required);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the default instance of the proto declared by this definition, or null if the definition writes into
+         *         the message of its caller.
+         */
+        public Message getPrototype() {
+            return prototype;
+        }
+
+        /**
+         * @return the message type the entries of this definition are written to.
+         */
+        public Descriptors.Descriptor getDescriptor() {
+            return descriptor;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return the variable slots of the config this definition belongs to.
+         */
+        VariableSlots getVariableSlots() {
+            return variableSlots;
+        }
+
+        /**
+         * @return the required fields of the message type, in field order.
+         */
+        List<Descriptors.FieldDescriptor> getRequiredFields() {
+            return requiredFields;
+        }
+
+        void setEntries(List<Entry> entries) {
+            this.entries = Collections.unmodifiableList(entries);
+        }
+
+        /**
+         * @return the members of a JSON document this definition can reach, or null if it needs the whole document.
+         */
+        JsonSelection getJsonSelection() {
+            if (!jsonSelectionResolved) {
+                jsonSelection = JsonSelection.of(this);
+                jsonSelectionResolved = true;
+            }
+
+            return jsonSelection;
+        }
+    }
+
+    public static final class Entry {
+
+        private final Config.Entry source;
+        private final CompiledExpression expression;
+        private final PathAccessor accessor;
+        private final Kind kind;
+        private final Descriptors.FieldDescriptor field;
+        private final FieldSetter setter;
+        private final FieldSetter boundSetter;
+        private final FieldSetter.BulkAdder bulkAdder;
+        private final ScalarCoercer coercer;
+        private final CustomHandler handler;
+        private final Definition definition;
+        private final String variableName;
+        private final int variableSlot;
+        private final int assignedSlot;
+        private final int limit;
+        private final AtomicLong rejected = new AtomicLong();
+
+        Entry(Config.Entry source, Kind kind, Descriptors.FieldDescriptor field, Class<?> builderClass,
+                        CustomHandler handler, Definition definition, VariableSlots slots) {
+            this.source = source;
+            this.expression = JXPathContext.compile(source.getPath());
+            this.accessor = PathAccessor.compile(source.getPath());
+            this.kind = kind;
+            this.field = field;
+            this.setter = (field == null) ? null : FieldSetter.reflective(field);
+            this.boundSetter = (field == null) ? null : FieldSetter.bind(field, builderClass);
+            this.bulkAdder = (field == null) ? null : FieldSetter.bindAddAll(field, builderClass);
+            this.coercer = (field == null) ? null : ScalarCoercer.forField(field, source.getAliases());
+            this.handler = handler;
+            this.definition = definition;
+            this.variableName = (kind == Kind.VARIABLE) ? source.getPath().substring(1) : null;
+            this.variableSlot = (variableName == null) ? -1 : slots.slot(variableName);
+            this.assignedSlot = (source.getVariable() == null) ? -1 : slots.slot(source.getVariable());
+            this.limit = source.getLimit() == null ? 0 : source.getLimit();
+        }
+
+        /**
+         * @return the config entry this entry was compiled from.
+         */
+        public Config.Entry getSource() {
+            return source;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getPath() {
+            return source.getPath();
+        }
+
+        /**
+         * @return the name of the target field, or the path of an entry without a field.
+         */
+        public String getName() {
+            return (field != null) ? field.getName() : source.getPath();
+        }
+
+        /**
+         * @return the path of this entry, parsed once when the config was compiled.
+         */
+        public CompiledExpression getExpression() {
+            return expression;
+        }
+
+        /**
+         * @return the direct accessor for the path, or null if the path always needs JXPath.
+         */
+        PathAccessor getAccessor() {
+            return accessor;
+        }
+
+        /**
+         * @return the target field, or null if the entry does not write to the target message.
+         */
+        public Descriptors.FieldDescriptor getField() {
+            return field;
+        }
+
+        /**
+         * @return the setter of the target field to use with the given engine, or null without a target field.
+         */
+        FieldSetter getSetter(ProtoBuilder.Engine engine) {
+            return (engine == ProtoBuilder.Engine.METHOD_HANDLES) ? boundSetter : setter;
+        }
+
+        /**
+         * @return the bulk adder of a repeated target field, or null if values have to be added one by one.
+         */
+        FieldSetter.BulkAdder getBulkAdder() {
+            return bulkAdder;
+        }
+
+        public CustomHandler getHandler() {
+            return handler;
+        }
+
+        public Definition getDefinition() {
+            return definition;
+        }
+
+        /**
+         * @return the name of the variable read by a {@link Kind#VARIABLE} entry.
+         */
+        public String getVariableName() {
+            return variableName;
+        }
+
+        /**
+         * @return the slot of the variable read by a {@link Kind#VARIABLE} entry, -1 for other entries.
+         */
+        int getVariableSlot() {
+            return variableSlot;
+        }
+
+        /**
+         * @return the name of the variable this entry assigns, or null.
+         */
+        public String getVariable() {
+            return source.getVariable();
+        }
+
+        /**
+         * @return the slot of the variable this entry assigns, -1 if it assigns none.
+         */
+        int getAssignedSlot() {
+            return assignedSlot;
+        }
+
+        /**
+         * @return the maximum number of repeated values to copy, 0 when unlimited.
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * @return the number of source values that could not be converted to the type of the target field, since the
+         *         config was compiled. They are dropped without an exception.
+         */
+        public long getRejectedCount() {
+            return rejected.get();
+        }
+
+        /**
+         * Converts a source value to the java type of the target field, counting the values that are rejected.
+         *
+         * @return the converted value, or null if there is no value or it cannot be converted
+         */
+        Object coerce(Object value) {
+            Object coerced = coercer.coerceNullable(value);
+            if (coerced == null && value != null) {
+                rejected.incrementAndGet();
+            }
+
+            return coerced;
+        }
+
+        public boolean isRepeated() {
+            return field != null && field.isRepeated();
+        }
+    }
+}
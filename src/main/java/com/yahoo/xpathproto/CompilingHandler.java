@@ -0,0 +1,29 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import com.google.protobuf.Descriptors;
+import com.yahoo.xpathproto.dataobject.Config;
+
+/**
+ * An optional interface for custom handlers that prepare themselves for each config entry that uses them. Handlers
+ * are created once per class name and shared; when a config is compiled, each of its entries naming a compiling
+ * handler calls {@link #compile(Config.Entry, Descriptors.FieldDescriptor)} on the shared instance, and the entry uses
+ * the returned handler for every transform. Entry specific work, such as compiling paths or parsing a format, is then
+ * done once rather than per record.
+ */
+public interface CompilingHandler extends CustomHandler {
+
+    /**
+     * Gives the handler to use for the given entry. The returned handler must implement ObjectToFieldHandler or
+     * ObjectToProtoHandler, and is called with the same entry; it may be this handler. It is shared by all threads.
+     *
+     * @param entry - the config entry that names the handler
+     * @param field - the target field of the entry, or null if the entry has none
+     * @return the handler for the entry
+     */
+    CustomHandler compile(Config.Entry entry, Descriptors.FieldDescriptor field);
+}
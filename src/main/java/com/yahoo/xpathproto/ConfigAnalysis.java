@@ -0,0 +1,130 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The findings of a {@link ConfigAnalyzer} for one config. Findings of rules that are ignored are left out.
+ */
+public final class ConfigAnalysis {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * A construct of the config that is known to be slow or useless.
+     */
+    public static final class Finding {
+
+        private final ConfigAnalyzer.Rule rule;
+        private final ConfigAnalyzer.Severity severity;
+        private final String definition;
+        private final int entry;
+        private final String field;
+        private final String path;
+        private final String message;
+
+        Finding(ConfigAnalyzer.Rule rule, ConfigAnalyzer.Severity severity, String definition, int entry, String field,
+                        String path, String message) {
+            this.rule = rule;
+            this.severity = severity;
+            this.definition = definition;
+            this.entry = entry;
+            this.field = field;
+            this.path = path;
+            this.message = message;
+        }
+
+        public ConfigAnalyzer.Rule getRule() {
+            return rule;
+        }
+
+        public ConfigAnalyzer.Severity getSeverity() {
+            return severity;
+        }
+
+        public String getDefinition() {
+            return definition;
+        }
+
+        /**
+         * @return the index of the entry in the transforms of the definition
+         */
+        public int getEntry() {
+            return entry;
+        }
+
+        /**
+         * @return the target field of the entry, or null
+         */
+        public String getField() {
+            return field;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return severity + " " + rule + " " + definition + "[" + entry + "] " + (field == null ? "-" : field) + " ["
+                            + path + "]: " + message;
+        }
+    }
+
+    private final List<Finding> findings;
+
+    ConfigAnalysis(List<Finding> findings) {
+        this.findings = Collections.unmodifiableList(findings);
+    }
+
+    public List<Finding> getFindings() {
+        return findings;
+    }
+
+    /**
+     * @return whether a finding has the {@link ConfigAnalyzer.Severity#ERROR} severity
+     */
+    public boolean hasErrors() {
+        for (Finding finding : findings) {
+            if (finding.getSeverity() == ConfigAnalyzer.Severity.ERROR) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the findings as a JSON document of the form {"findings": [{"rule": ..., "severity": ..., "definition":
+     *         ..., "entry": ..., "field": ..., "path": ..., "message": ...}]}
+     */
+    public String toJson() {
+        try {
+            return mapper.writeValueAsString(this);
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to write the config analysis as JSON", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (Finding finding : findings) {
+            report.append((report.length() == 0) ? "" : "\n").append(finding);
+        }
+
+        return report.toString();
+    }
+}
@@ -0,0 +1,288 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.yahoo.xpathproto.dataobject.Config;
+
+/**
+ * Looks for constructs of a config that are known to make transforms slow, or that do nothing. Each {@link Rule} has a
+ * {@link Severity}: warnings are logged when a {@link ConfigRegistry} loads the config, and errors make the load fail.
+ * All rules are warnings by default.
+ * <p>
+ * The analysis works on the paths as text, so it can miss constructs hidden in handlers or in unusual spellings of an
+ * expression; it does not evaluate anything. Where a handler could make a finding wrong, as for
+ * {@link Rule#UNUSED_VARIABLE}, the rule is not checked rather than risk rejecting a valid config.
+ */
+public class ConfigAnalyzer {
+
+    /**
+     * What to do with the findings of a rule.
+     */
+    public enum Severity {
+        /** The rule is not checked. */
+        IGNORE,
+        /** The findings are reported and logged. */
+        WARN,
+        /** The findings are reported and the config is rejected. */
+        ERROR
+    }
+
+    /**
+     * The constructs the analyzer looks for.
+     */
+    public enum Rule {
+        /** A path uses the descendant axis ("//"), which walks the whole subtree of the source node. */
+        DESCENDANT_AXIS,
+        /**
+         * A path of a definition applied to every element of a repeated field has a predicate that is not a position.
+         * The predicate is evaluated by JXPath once per element, and the path cannot use a direct accessor.
+         */
+        FILTER_IN_REPEATED_DEFINITION,
+        /** A path is a string() call on a literal, which is evaluated by JXPath every time the entry is applied. */
+        CONSTANT_STRING_CALL,
+        /**
+         * An entry assigns a variable that no path reads. Handlers are given the variables and may read any of them,
+         * so the rule is only checked for configs without handler entries.
+         */
+        UNUSED_VARIABLE,
+        /** An entry is the same as an earlier entry of its definition, so its path is resolved twice. */
+        DUPLICATE_ENTRY
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigAnalyzer.class);
+    private static final Pattern LITERAL = Pattern.compile("'[^']*'|\"[^\"]*\"");
+    private static final Pattern DESCENDANT = Pattern.compile("//|descendant(-or-self)?::");
+    private static final Pattern PREDICATE = Pattern.compile("\\[([^\\[\\]]*)\\]");
+    private static final Pattern POSITION = Pattern.compile("\\s*(\\d+|last\\(\\)(\\s*-\\s*\\d+)?)\\s*");
+    private static final Pattern CONSTANT_STRING = Pattern.compile("\\s*string\\(\\s*('[^']*'|\"[^\"]*\")\\s*\\)\\s*");
+    private static final Pattern VARIABLE_REFERENCE = Pattern.compile("\\$([A-Za-z_][\\w.-]*)");
+    private static final ConfigAnalyzer defaultAnalyzer = new ConfigAnalyzer();
+
+    /**
+     * @return the analyzer used by registries that are not given one.
+     */
+    public static ConfigAnalyzer getDefault() {
+        return defaultAnalyzer;
+    }
+
+    private volatile Map<Rule, Severity> severities;
+
+    /**
+     * Instantiates an analyzer that reports every rule as a warning.
+     */
+    public ConfigAnalyzer() {
+        Map<Rule, Severity> defaults = new EnumMap<>(Rule.class);
+        for (Rule rule : Rule.values()) {
+            defaults.put(rule, Severity.WARN);
+        }
+        this.severities = defaults;
+    }
+
+    public Severity getSeverity(Rule rule) {
+        return severities.get(rule);
+    }
+
+    /**
+     * Changes the severity of a rule, for the configs analyzed from now on.
+     *
+     * @return this analyzer
+     */
+    public synchronized ConfigAnalyzer setSeverity(Rule rule, Severity severity) {
+        if (rule == null || severity == null) {
+            throw new IllegalArgumentException("rule and severity must be specified");
+        }
+
+        // copied so that a running analysis keeps the severities it started with
+        Map<Rule, Severity> updated = new EnumMap<>(severities);
+        updated.put(rule, severity);
+        severities = updated;
+        return this;
+    }
+
+    /**
+     * Analyzes a compiled config. Definitions that are not reachable from a definition with a proto are only checked
+     * for the rules that do not depend on how they are reached.
+     *
+     * @param compiled - the compiled config
+     * @return the findings, by definition in config order, then by entry
+     */
+    public ConfigAnalysis analyze(CompiledConfig compiled) {
+        Map<Rule, Severity> current = severities;
+        Config config = compiled.getConfig();
+        Set<Config.Entry> repeated = repeatedEntries(compiled);
+        Set<String> referenced = referencedVariables(config);
+
+        List<ConfigAnalysis.Finding> findings = new ArrayList<>();
+        for (Map.Entry<String, Config.Definition> definition : config.definitions.entrySet()) {
+            Map<List<Object>, Integer> seen = new HashMap<>();
+            List<Config.Entry> transforms = definition.getValue().getTransforms();
+            for (int i = 0; i < transforms.size(); i++) {
+                Config.Entry entry = transforms.get(i);
+                Finder finder = new Finder(current, findings, definition.getKey(), i, entry);
+                String path = LITERAL.matcher(entry.getPath()).replaceAll("''");
+
+                if (DESCENDANT.matcher(path).find()) {
+                    finder.add(Rule.DESCENDANT_AXIS, "the descendant axis walks the whole subtree of the source node");
+                }
+
+                if (repeated.contains(entry)) {
+                    Matcher predicate = PREDICATE.matcher(path);
+                    while (predicate.find()) {
+                        if (!POSITION.matcher(predicate.group(1)).matches()) {
+                            finder.add(Rule.FILTER_IN_REPEATED_DEFINITION, "the predicate [" + predicate.group(1)
+                                            + "] is evaluated by JXPath for every element of a repeated field");
+                            break;
+                        }
+                    }
+                }
+
+                if (CONSTANT_STRING.matcher(entry.getPath()).matches()) {
+                    finder.add(Rule.CONSTANT_STRING_CALL, "the constant is evaluated by JXPath every time the entry is"
+                                    + " applied");
+                }
+
+                if (entry.getVariable() != null && referenced != null && !referenced.contains(entry.getVariable())) {
+                    finder.add(Rule.UNUSED_VARIABLE, "no path reads the variable $" + entry.getVariable());
+                }
+
+                List<Object> key = Arrays.asList(entry.getField(), entry.getVariable(), entry.getPath(),
+                                entry.getHandler(), entry.getDefinition(), entry.getLimit(), entry.getAliases());
+                Integer first = seen.get(key);
+                if (first != null) {
+                    finder.add(Rule.DUPLICATE_ENTRY, "the same as entry " + first);
+                } else {
+                    seen.put(key, i);
+                }
+            }
+        }
+
+        return new ConfigAnalysis(findings);
+    }
+
+    /**
+     * Analyzes a config being loaded, logs the warnings and rejects the config if there are errors.
+     *
+     * @param compiled - the compiled config
+     * @param configPath - the path the config was loaded from, for the messages
+     * @return the findings
+     */
+    public ConfigAnalysis check(CompiledConfig compiled, String configPath) {
+        ConfigAnalysis analysis = analyze(compiled);
+        List<ConfigAnalysis.Finding> errors = new ArrayList<>();
+        for (ConfigAnalysis.Finding finding : analysis.getFindings()) {
+            if (finding.getSeverity() == Severity.ERROR) {
+                errors.add(finding);
+            } else {
+                logger.warn("Config {}: {}", configPath, finding);
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Config rejected by the analysis: " + configPath + "\n"
+                            + new ConfigAnalysis(errors));
+        }
+
+        return analysis;
+    }
+
+    /**
+     * @return the config entries of the definitions that are applied to every element of a repeated field.
+     */
+    private static Set<Config.Entry> repeatedEntries(CompiledConfig compiled) {
+        Set<Config.Entry> entries = Collections.newSetFromMap(new IdentityHashMap<Config.Entry, Boolean>());
+        // definitions can be recursive, and can be reached both once per message and once per element
+        Map<CompiledConfig.Definition, Boolean> visited = new IdentityHashMap<>();
+        for (CompiledConfig.Definition definition : compiled.getDefinitions()) {
+            collectRepeated(definition, false, entries, visited);
+        }
+
+        return entries;
+    }
+
+    private static void collectRepeated(CompiledConfig.Definition definition, boolean repeated,
+                    Set<Config.Entry> entries, Map<CompiledConfig.Definition, Boolean> visited) {
+        Boolean visitedRepeated = visited.get(definition);
+        if (visitedRepeated != null && (visitedRepeated || !repeated)) {
+            return;
+        }
+        visited.put(definition, repeated);
+
+        for (CompiledConfig.Entry entry : definition.getEntries()) {
+            if (repeated) {
+                entries.add(entry.getSource());
+            }
+            // a definition reached once per element is applied per element, and so is everything it maps
+            if (entry.getKind() == CompiledConfig.Kind.DEFINITION && (repeated || entry.isRepeated())) {
+                collectRepeated(entry.getDefinition(), true, entries, visited);
+            }
+        }
+    }
+
+    /**
+     * @return the names of the variables read by the paths of the config, or null if any variable may be read
+     */
+    private static Set<String> referencedVariables(Config config) {
+        Set<String> names = new HashSet<>();
+        for (Config.Definition definition : config.definitions.values()) {
+            for (Config.Entry entry : definition.getTransforms()) {
+                if (entry.getHandler() != null) {
+                    return null;
+                }
+                Matcher reference = VARIABLE_REFERENCE.matcher(LITERAL.matcher(entry.getPath()).replaceAll("''"));
+                while (reference.find()) {
+                    names.add(reference.group(1));
+                }
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Adds the findings of one entry, with the severity of their rule.
+     */
+    private static final class Finder {
+
+        private final Map<Rule, Severity> severities;
+        private final List<ConfigAnalysis.Finding> findings;
+        private final String definition;
+        private final int index;
+        private final Config.Entry entry;
+
+        Finder(Map<Rule, Severity> severities, List<ConfigAnalysis.Finding> findings, String definition, int index,
+                        Config.Entry entry) {
+            this.severities = severities;
+            this.findings = findings;
+            this.definition = definition;
+            this.index = index;
+            this.entry = entry;
+        }
+
+        void add(Rule rule, String message) {
+            Severity severity = severities.get(rule);
+            if (severity != Severity.IGNORE) {
+                findings.add(new ConfigAnalysis.Finding(rule, severity, definition, index, entry.getField(),
+                                entry.getPath(), message));
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.yahoo.xpathproto.dataobject.Config;
+
+/**
+ * Turns a {@link Config} into a {@link CompiledConfig}. Definitions without a proto write into the message of their
+ * caller, so they are compiled once for every message type they are reached with.
+ */
+class ConfigCompiler {
+
+    private static final ConcurrentMap<String, CustomHandler> handlers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Message> defaultInstances = new ConcurrentHashMap<>();
+
+    private final Config config;
+    private final Map<String, CompiledConfig.Definition> compiled = new HashMap<>();
+    private final VariableSlots slots = new VariableSlots();
+
+    ConfigCompiler(Config config) {
+        this.config = config;
+    }
+
+    CompiledConfig compile() {
+        Map<String, CompiledConfig.Definition> topLevel = new HashMap<>();
+        for (Map.Entry<String, Config.Definition> entry : config.definitions.entrySet()) {
+            if (entry.getValue().getProto() != null) {
+                topLevel.put(entry.getKey(), compileDefinition(entry.getKey(), null));
+            }
+        }
+
+        int weight = 0;
+        for (CompiledConfig.Definition definition : compiled.values()) {
+            weight += 1 + definition.getEntries().size();
+        }
+
+        return new CompiledConfig(config, topLevel, weight);
+    }
+
+    private CompiledConfig.Definition compileDefinition(String definitionName, Message callerType) {
+        Config.Definition definition = config.definitions.get(definitionName);
+        if (null == definition) {
+            throw new IllegalArgumentException("Cannot find transform definition: " + definitionName);
+        }
+
+        Message prototype = null;
+        Message targetType = callerType;
+        if (null != definition.getProto()) {
+            prototype = getDefaultInstance(definition.getProto());
+            targetType = prototype;
+        } else if (null == callerType) {
+            throw new IllegalArgumentException("proto class must be specified at the top level definition name: "
+                            + definitionName);
+        }
+        Descriptors.Descriptor descriptor = targetType.getDescriptorForType();
+
+        String key = definitionName + "@" + descriptor.getFullName();
+        CompiledConfig.Definition result = compiled.get(key);
+        if (result != null) {
+            return result;
+        }
+
+        // registered before the entries are compiled so that recursive definitions resolve to the same instance
+        result = new CompiledConfig.Definition(definitionName, prototype, descriptor, slots);
+        compiled.put(key, result);
+
+        Class<?> builderClass = targetType.newBuilderForType().getClass();
+        List<CompiledConfig.Entry> entries = new ArrayList<>();
+        for (Config.Entry transform : definition.getTransforms()) {
+            entries.add(compileEntry(transform, targetType, builderClass));
+        }
+        result.setEntries(entries);
+
+        return result;
+    }
+
+    private CompiledConfig.Entry compileEntry(Config.Entry transform, Message targetType, Class<?> builderClass) {
+        Descriptors.FieldDescriptor field = null;
+        if (transform.getField() != null) {
+            field = targetType.getDescriptorForType().findFieldByName(transform.getField());
+            if (null == field) {
+                throw new RuntimeException("Unknown target field in protobuf: " + transform.getField());
+            }
+        }
+
+        if (transform.getAliases() != null
+                        && (field == null || field.getJavaType() != Descriptors.FieldDescriptor.JavaType.ENUM)) {
+            throw new IllegalArgumentException("aliases can only be given for an enum field: " + transform.getField());
+        }
+
+        if (transform.getDefinition() != null) {
+            CompiledConfig.Definition definition = compileDefinition(transform.getDefinition(), targetType);
+            return new CompiledConfig.Entry(transform, CompiledConfig.Kind.DEFINITION, field, builderClass, null,
+                            definition, slots);
+        }
+
+        if (transform.getHandler() != null) {
+            CustomHandler handler = createHandler(transform.getHandler());
+            if (handler instanceof CompilingHandler) {
+                handler = ((CompilingHandler) handler).compile(transform, field);
+            }
+            if (!(handler instanceof ObjectToFieldHandler) && !(handler instanceof ObjectToProtoHandler)) {
+                throw new RuntimeException(
+                                "Handler must implement one of the ObjectToProtoHandler or ObjectFieldHandler interface: "
+                                                + transform.getHandler());
+            }
+            return new CompiledConfig.Entry(transform, CompiledConfig.Kind.HANDLER, field, builderClass, handler,
+                            null, slots);
+        }
+
+        CompiledConfig.Kind kind = transform.getPath().startsWith("$") ? CompiledConfig.Kind.VARIABLE
+                        : CompiledConfig.Kind.SCALAR;
+        return new CompiledConfig.Entry(transform, kind, field, builderClass, null, null, slots);
+    }
+
+    private static CustomHandler createHandler(String className) {
+        CustomHandler handler = handlers.get(className);
+        if (null == handler) {
+            try {
+                handler = (CustomHandler) Class.forName(className).newInstance();
+                // another thread may have created the same handler meanwhile, keep a single shared instance
+                CustomHandler existing = handlers.putIfAbsent(className, handler);
+                if (existing != null) {
+                    handler = existing;
+                }
+            } catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
+                throw new RuntimeException("Failed to create the handler: " + className, e);
+            }
+        }
+
+        return handler;
+    }
+
+    private static Message getDefaultInstance(final String className) {
+        Message defaultInstance = defaultInstances.get(className);
+        if (null == defaultInstance) {
+            try {
+                Class messageClass = Class.forName(className);
+                Method getDefaultInstanceMethod = messageClass.getMethod("getDefaultInstance", (Class[]) null);
+                defaultInstance = (Message) getDefaultInstanceMethod.invoke((Object[]) null, (Object[]) null);
+                defaultInstances.putIfAbsent(className, defaultInstance);
+            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+                            | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        return defaultInstance;
+    }
+}
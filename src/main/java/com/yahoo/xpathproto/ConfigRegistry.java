@@ -0,0 +1,313 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Holds the compiled configs used by {@link ProtoBuilder}, keyed by config path. The registry is bounded by the total
+ * weight of its configs (see {@link CompiledConfig#getWeight()}) rather than by their number, and evicts the least
+ * recently used configs when the bound is exceeded. A config that weighs more than the bound on its own could never be
+ * held, and would be loaded again by every transform, so it is rejected instead.
+ * <p>
+ * When file watching is enabled, the directories of configs loaded from the file system are watched with a
+ * {@link WatchService}. A config whose file changes is recompiled on the watcher thread and swapped in atomically:
+ * transforms that are running keep the config they started with, later transforms use the new one, and no transform
+ * waits for the reload. If the changed file cannot be loaded the previous config is kept. Configs loaded from class
+ * path resources are not watched.
+ * <p>
+ * Every config is checked by a {@link ConfigAnalyzer} when it is loaded: its warnings are logged, and a config with
+ * errors is rejected like a config that fails to compile.
+ */
+public class ConfigRegistry implements Closeable {
+
+    /**
+     * The maximum weight of the default registry.
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 100000;
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigRegistry.class);
+    private static final Weigher<String, Handle> WEIGHER = new Weigher<String, Handle>() {
+        @Override
+        public int weigh(String path, Handle handle) {
+            return handle.getConfig().getWeight();
+        }
+    };
+    private static final RemovalListener<String, Handle> REMOVAL_LISTENER = new RemovalListener<String, Handle>() {
+        @Override
+        public void onRemoval(RemovalNotification<String, Handle> notification) {
+            if (notification.getCause() != RemovalCause.REPLACED) {
+                logger.info("Config removed from the registry: {} ({})", notification.getKey(),
+                                notification.getCause());
+                notification.getValue().evicted = true;
+            }
+        }
+    };
+    private static final ConfigRegistry defaultRegistry = new ConfigRegistry(DEFAULT_MAXIMUM_WEIGHT, false);
+
+    /**
+     * @return the registry used by ProtoBuilders that are not given one; it does not watch files.
+     */
+    public static ConfigRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    private final Cache<String, Handle> handles;
+    private final long maximumWeight;
+    private final boolean watchFiles;
+    private final ConfigAnalyzer analyzer;
+    // config paths by the absolute file they were loaded from
+    private final ConcurrentMap<Path, Set<String>> watchedFiles = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private WatchService watchService;
+    private Thread watcher;
+    private boolean closed;
+
+    /**
+     * Instantiates a new registry.
+     *
+     * @param maximumWeight - the maximum total weight of the configs held by the registry
+     * @param watchFiles - whether config files are watched and reloaded when they change
+     */
+    public ConfigRegistry(final long maximumWeight, final boolean watchFiles) {
+        this(maximumWeight, watchFiles, ConfigAnalyzer.getDefault());
+    }
+
+    /**
+     * Instantiates a new registry that checks the configs it loads with the given analyzer.
+     *
+     * @param maximumWeight - the maximum total weight of the configs held by the registry; heavier configs are rejected
+     * @param watchFiles - whether config files are watched and reloaded when they change
+     * @param analyzer - the analyzer run on every config loaded or reloaded; a config with errors is rejected
+     */
+    public ConfigRegistry(final long maximumWeight, final boolean watchFiles, final ConfigAnalyzer analyzer) {
+        this.maximumWeight = maximumWeight;
+        this.watchFiles = watchFiles;
+        this.analyzer = analyzer;
+        // reads are lock free; a single segment keeps the weight bound exact instead of splitting it across segments
+        this.handles = CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maximumWeight).weigher(WEIGHER)
+                        .removalListener(REMOVAL_LISTENER).build();
+    }
+
+    /**
+     * Gives the current compiled config for the given path, loading and compiling it if needed.
+     *
+     * @param configPath - the path to the config file or resource
+     * @return the compiled config
+     */
+    public CompiledConfig get(final String configPath) {
+        return getHandle(configPath).getConfig();
+    }
+
+    /**
+     * Recompiles the config at the given path and swaps it in, if the registry holds it.
+     *
+     * @param configPath - the path to the config file or resource
+     * @return true if the config was reloaded, false if the registry does not hold it or it failed to load
+     */
+    public boolean reload(final String configPath) {
+        Handle handle = handles.getIfPresent(configPath);
+        if (handle == null) {
+            return false;
+        }
+
+        CompiledConfig config;
+        try {
+            config = load(configPath);
+        } catch (RuntimeException e) {
+            logger.error("Failed to reload config, keeping the previous one: " + configPath, e);
+            return false;
+        }
+
+        handle.config = config;
+        // put again so that the weight of the new config is accounted for
+        if (handles.asMap().replace(configPath, handle, handle)) {
+            logger.info("Reloaded config: {}", configPath);
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops watching config files. The configs already loaded stay usable.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (watchService != null) {
+            watchService.close();
+            watcher.interrupt();
+            watchService = null;
+        }
+    }
+
+    Handle getHandle(final String configPath) {
+        Handle handle = handles.getIfPresent(configPath);
+        if (handle != null) {
+            return handle;
+        }
+
+        try {
+            return handles.get(configPath, new Callable<Handle>() {
+                @Override
+                public Handle call() throws Exception {
+                    Handle handle = new Handle(load(configPath));
+                    watch(configPath);
+                    return handle;
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new RuntimeException("There was a problem loading the config from the file: " + configPath,
+                            e.getCause());
+        }
+    }
+
+    private CompiledConfig load(final String configPath) {
+        try {
+            CompiledConfig config = CompiledConfig.compile(new ConfigLoader(configPath).call());
+            if (config.getWeight() > maximumWeight) {
+                throw new IllegalArgumentException("Config weighs " + config.getWeight()
+                                + ", more than the maximum weight of the registry " + maximumWeight + ": " + configPath);
+            }
+            analyzer.check(config, configPath);
+            return config;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load transform config from: " + configPath, e);
+        }
+    }
+
+    private void watch(final String configPath) {
+        File file = new File(configPath);
+        if (!watchFiles || !file.isFile()) {
+            return;
+        }
+
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Set<String> configPaths = watchedFiles.get(path);
+        if (configPaths == null) {
+            watchedFiles.putIfAbsent(path, new CopyOnWriteArraySet<String>());
+            configPaths = watchedFiles.get(path);
+        }
+        configPaths.add(configPath);
+
+        try {
+            watchDirectory(path.getParent());
+        } catch (IOException e) {
+            logger.warn("Unable to watch config file, it will not be reloaded: " + configPath, e);
+        }
+    }
+
+    private synchronized void watchDirectory(final Path directory) throws IOException {
+        if (closed || watchedDirectories.contains(directory)) {
+            return;
+        }
+
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            watcher = new Thread(new Watcher(watchService), "xpathproto-config-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirectories.add(directory);
+    }
+
+    /**
+     * Reloads the configs whose files changed, until the watch service is closed.
+     */
+    private final class Watcher implements Runnable {
+
+        private final WatchService service;
+
+        Watcher(WatchService service) {
+            this.service = service;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    WatchKey key = service.take();
+                    Path directory = (Path) key.watchable();
+                    Set<String> changed = new HashSet<>();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            for (Set<String> configPaths : watchedFiles.values()) {
+                                changed.addAll(configPaths);
+                            }
+                            continue;
+                        }
+                        Set<String> configPaths = watchedFiles.get(directory.resolve((Path) event.context()));
+                        if (configPaths != null) {
+                            changed.addAll(configPaths);
+                        }
+                    }
+                    key.reset();
+
+                    for (String configPath : changed) {
+                        reload(configPath);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                logger.info("Stopped watching config files");
+            }
+        }
+    }
+
+    /**
+     * The current config for one path. Holders keep the handle and read its config for every transform, so a reload is
+     * seen without going through the registry again.
+     */
+    static final class Handle {
+
+        private volatile CompiledConfig config;
+        private volatile boolean evicted;
+
+        Handle(CompiledConfig config) {
+            this.config = config;
+        }
+
+        CompiledConfig getConfig() {
+            return config;
+        }
+
+        /**
+         * @return true once the registry dropped this handle; it is no longer reloaded.
+         */
+        boolean isEvicted() {
+            return evicted;
+        }
+    }
+}
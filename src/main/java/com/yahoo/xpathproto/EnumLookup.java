@@ -0,0 +1,242 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.protobuf.Descriptors;
+
+/**
+ * Finds the value of an enum type from the spellings found in source data: the value name, an alias given in the
+ * config, or the value number. Names and aliases are matched ignoring ASCII case.
+ * <p>
+ * The table is built once, when a config is compiled. Names and aliases are placed in a perfect hash table, with a
+ * seed chosen so that no two keys share a slot, so a lookup hashes the string once and compares it with a single key.
+ * Numbers are found by binary search. Lookups do not allocate.
+ */
+final class EnumLookup {
+
+    private static final ConcurrentMap<Descriptors.EnumDescriptor, EnumLookup> lookups = new ConcurrentHashMap<>();
+    private static final int SEEDS_PER_SIZE = 64;
+
+    private final Descriptors.EnumDescriptor type;
+    private final int seed;
+    private final int mask;
+    private final String[] keys;
+    // the value of each key; null for a name that only differs by case from another name, matched exactly instead
+    private final Descriptors.EnumValueDescriptor[] values;
+    private final int[] numbers;
+    private final Descriptors.EnumValueDescriptor[] valuesByNumber;
+
+    /**
+     * Gives the lookup of an enum type without aliases, shared by all fields of that type.
+     */
+    static EnumLookup of(Descriptors.EnumDescriptor type) {
+        EnumLookup lookup = lookups.get(type);
+        if (lookup == null) {
+            lookups.putIfAbsent(type, new EnumLookup(type, null));
+            lookup = lookups.get(type);
+        }
+
+        return lookup;
+    }
+
+    /**
+     * Gives the lookup of an enum type with the given aliases.
+     *
+     * @param aliases - value names by alias, may be null
+     * @throws IllegalArgumentException if an alias names an unknown value or clashes with a name of another value
+     */
+    static EnumLookup of(Descriptors.EnumDescriptor type, Map<String, String> aliases) {
+        return (aliases == null || aliases.isEmpty()) ? of(type) : new EnumLookup(type, aliases);
+    }
+
+    private EnumLookup(Descriptors.EnumDescriptor type, Map<String, String> aliases) {
+        this.type = type;
+
+        Map<String, Descriptors.EnumValueDescriptor> byKey = new LinkedHashMap<>();
+        Map<String, String> spellings = new LinkedHashMap<>();
+        for (Descriptors.EnumValueDescriptor value : type.getValues()) {
+            String key = fold(value.getName());
+            // a name that differs from another only by case cannot be matched ignoring case
+            byKey.put(key, byKey.containsKey(key) ? null : value);
+            spellings.put(key, value.getName());
+        }
+
+        if (aliases != null) {
+            for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                Descriptors.EnumValueDescriptor value = type.findValueByName(alias.getValue());
+                if (value == null) {
+                    throw new IllegalArgumentException("Unknown value " + alias.getValue() + " of enum "
+                                    + type.getFullName() + " for alias: " + alias.getKey());
+                }
+                String key = fold(alias.getKey());
+                if (byKey.containsKey(key) && byKey.get(key) != value) {
+                    throw new IllegalArgumentException("Alias clashes with another value of enum "
+                                    + type.getFullName() + ": " + alias.getKey());
+                }
+                byKey.put(key, value);
+                spellings.put(key, alias.getKey());
+            }
+        }
+
+        List<String> keyList = new ArrayList<>(byKey.keySet());
+        int size = 2;
+        while (size < keyList.size() * 2) {
+            size <<= 1;
+        }
+        int found = -1;
+        while (found < 0) {
+            found = findSeed(keyList, size);
+            if (found < 0) {
+                size <<= 1;
+            }
+        }
+
+        this.seed = found;
+        this.mask = size - 1;
+        this.keys = new String[size];
+        this.values = new Descriptors.EnumValueDescriptor[size];
+        for (String key : keyList) {
+            int slot = hash(key, seed) & mask;
+            keys[slot] = spellings.get(key);
+            values[slot] = byKey.get(key);
+        }
+
+        // the first value declared with a number wins, as with findValueByNumber
+        Map<Integer, Descriptors.EnumValueDescriptor> byNumber = new LinkedHashMap<>();
+        for (Descriptors.EnumValueDescriptor value : type.getValues()) {
+            if (!byNumber.containsKey(value.getNumber())) {
+                byNumber.put(value.getNumber(), value);
+            }
+        }
+        this.numbers = new int[byNumber.size()];
+        int i = 0;
+        for (Integer number : byNumber.keySet()) {
+            numbers[i++] = number;
+        }
+        Arrays.sort(numbers);
+        this.valuesByNumber = new Descriptors.EnumValueDescriptor[numbers.length];
+        for (i = 0; i < numbers.length; i++) {
+            valuesByNumber[i] = byNumber.get(numbers[i]);
+        }
+    }
+
+    private static int findSeed(List<String> keys, int size) {
+        boolean[] used = new boolean[size];
+        for (int seed = 0; seed < SEEDS_PER_SIZE; seed++) {
+            Arrays.fill(used, false);
+            boolean collision = false;
+            for (String key : keys) {
+                int slot = hash(key, seed) & (size - 1);
+                if (used[slot]) {
+                    collision = true;
+                    break;
+                }
+                used[slot] = true;
+            }
+            if (!collision) {
+                return seed;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the enum value for a source value: a boxed integer is taken as a value number, anything else by its string
+     * form, as a name, an alias or a decimal number.
+     *
+     * @return the enum value, or null if the source value does not match any
+     */
+    Descriptors.EnumValueDescriptor find(Object source) {
+        if (source instanceof Integer || source instanceof Long || source instanceof Short || source instanceof Byte) {
+            long number = ((Number) source).longValue();
+            return (number == (int) number) ? findByNumber((int) number) : null;
+        }
+
+        String s = source.toString();
+        int slot = hash(s, seed) & mask;
+        String key = keys[slot];
+        if (key != null && equalsIgnoreCase(key, s)) {
+            Descriptors.EnumValueDescriptor value = values[slot];
+            return (value != null) ? value : type.findValueByName(s);
+        }
+
+        return findByNumber(s);
+    }
+
+    private Descriptors.EnumValueDescriptor findByNumber(int number) {
+        int index = Arrays.binarySearch(numbers, number);
+        return (index < 0) ? null : valuesByNumber[index];
+    }
+
+    private Descriptors.EnumValueDescriptor findByNumber(String s) {
+        int length = s.length();
+        int i = (length > 1 && s.charAt(0) == '-') ? 1 : 0;
+        if (i == length || length - i > 10) {
+            return null;
+        }
+
+        long number = 0;
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            number = number * 10 + (c - '0');
+        }
+        if (s.charAt(0) == '-') {
+            number = -number;
+        }
+
+        return (number == (int) number) ? findByNumber((int) number) : null;
+    }
+
+    /**
+     * A seeded FNV-1a hash of the string with ASCII letters folded to lower case.
+     */
+    private static int hash(String s, int seed) {
+        int h = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ lower(s.charAt(i))) * 0x01000193;
+        }
+
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(String key, String s) {
+        if (key.length() != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (lower(key.charAt(i)) != lower(s.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String fold(String s) {
+        StringBuilder folded = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            folded.append(lower(s.charAt(i)));
+        }
+
+        return folded.toString();
+    }
+
+    private static char lower(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.Message;
+
+/**
+ * Collects the numbers of one {@link ProtoBuilder#explain(Object)} call. Entries of nested definitions are applied
+ * while the entry that maps the definition is still running, so the entries being applied form a stack, and the
+ * numbers reported by the builder go to the innermost one. That stack only makes sense for a single call, so a
+ * recorder is never given to another call or thread.
+ */
+final class ExplainRecorder {
+
+    private final Map<CompiledConfig.Entry, Stats> stats = new LinkedHashMap<>();
+    private final Deque<Stats> running = new ArrayDeque<>();
+
+    void begin(CompiledConfig.Definition definition, CompiledConfig.Entry entry) {
+        Stats entryStats = stats.get(entry);
+        if (entryStats == null) {
+            entryStats = new Stats(definition.getName());
+            stats.put(entry, entryStats);
+        }
+        running.push(entryStats);
+    }
+
+    void end(long nanos) {
+        Stats entryStats = running.pop();
+        entryStats.invocations++;
+        entryStats.nanos += nanos;
+    }
+
+    /**
+     * Counts a lookup of the path of the running entry.
+     *
+     * @param fastPath - whether the path was resolved by its accessor
+     */
+    void lookup(boolean fastPath) {
+        if (fastPath) {
+            running.peek().fastPathLookups++;
+        } else {
+            running.peek().jxpathLookups++;
+        }
+    }
+
+    /**
+     * Counts nodes or values selected by the running entry.
+     */
+    void nodes(int count) {
+        running.peek().nodes += count;
+    }
+
+    /**
+     * Counts values or messages written by the running entry.
+     */
+    void values(int count) {
+        running.peek().values += count;
+    }
+
+    Explanation toExplanation(Message.Builder builder, long nanos) {
+        List<Explanation.EntryReport> reports = new ArrayList<>(stats.size());
+        for (Map.Entry<CompiledConfig.Entry, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            reports.add(new Explanation.EntryReport(s.definition, entry.getKey(), s.invocations, s.nanos, s.nodes,
+                            s.values, s.fastPathLookups, s.jxpathLookups));
+        }
+
+        return new Explanation(builder, reports, nanos);
+    }
+
+    private static final class Stats {
+
+        private final String definition;
+        private int invocations;
+        private long nanos;
+        private int nodes;
+        private int values;
+        private int fastPathLookups;
+        private int jxpathLookups;
+
+        Stats(String definition) {
+            this.definition = definition;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.Message;
+
+/**
+ * The result of {@link ProtoBuilder#explain(Object)}: the message builder, along with what each entry of the config
+ * cost for that input. Entries are reported in the order they were first applied, once per config entry, with the
+ * numbers of all the nodes a nested definition applied them to added up.
+ * <p>
+ * Times are inclusive: an entry that maps a nested definition includes the entries of that definition. They also
+ * include the bookkeeping of the explain mode, so they are meant to compare entries with each other rather than as
+ * the latency of a plain {@link ProtoBuilder#build(Object)}.
+ */
+public final class Explanation {
+
+    /**
+     * How the paths of an entry were resolved.
+     */
+    public enum PathEngine {
+        /** Every lookup was resolved by a direct accessor, without JXPath. */
+        FAST_PATH,
+        /** Every lookup went through JXPath. */
+        JXPATH,
+        /** Some lookups were resolved by the accessor and others by JXPath, depending on the source node. */
+        MIXED,
+        /** The entry did not look up its path itself, e.g. it is resolved by a handler. */
+        NONE
+    }
+
+    /**
+     * What one config entry cost.
+     */
+    public static final class EntryReport {
+
+        private final String definition;
+        private final CompiledConfig.Entry entry;
+        private final int invocations;
+        private final long elapsedNanos;
+        private final int nodes;
+        private final int values;
+        private final int fastPathLookups;
+        private final int jxpathLookups;
+
+        EntryReport(String definition, CompiledConfig.Entry entry, int invocations, long elapsedNanos, int nodes,
+                        int values, int fastPathLookups, int jxpathLookups) {
+            this.definition = definition;
+            this.entry = entry;
+            this.invocations = invocations;
+            this.elapsedNanos = elapsedNanos;
+            this.nodes = nodes;
+            this.values = values;
+            this.fastPathLookups = fastPathLookups;
+            this.jxpathLookups = jxpathLookups;
+        }
+
+        /**
+         * @return the name of the definition the entry belongs to
+         */
+        public String getDefinition() {
+            return definition;
+        }
+
+        /**
+         * @return the name of the target field, or null if the entry has none
+         */
+        public String getField() {
+            return (entry.getField() == null) ? null : entry.getField().getName();
+        }
+
+        public String getPath() {
+            return entry.getPath();
+        }
+
+        public CompiledConfig.Kind getKind() {
+            return entry.getKind();
+        }
+
+        /**
+         * @return the number of source nodes the entry was applied to
+         */
+        public int getInvocations() {
+            return invocations;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return the number of nodes or values the path of the entry selected, or its handler returned
+         */
+        public int getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return the number of values or messages written to the target field
+         */
+        public int getValues() {
+            return values;
+        }
+
+        /**
+         * @return whether the path of the entry resolved to nothing every time it was applied
+         */
+        public boolean isEmpty() {
+            return nodes == 0;
+        }
+
+        public int getFastPathLookups() {
+            return fastPathLookups;
+        }
+
+        public int getJXPathLookups() {
+            return jxpathLookups;
+        }
+
+        public PathEngine getEngine() {
+            if (fastPathLookups == 0) {
+                return (jxpathLookups == 0) ? PathEngine.NONE : PathEngine.JXPATH;
+            }
+
+            return (jxpathLookups == 0) ? PathEngine.FAST_PATH : PathEngine.MIXED;
+        }
+
+        @Override
+        public String toString() {
+            return definition + " " + (getField() == null ? "-" : getField()) + " [" + getPath() + "] " + getKind()
+                            + ": " + elapsedNanos + "ns, " + invocations + " invocations, " + nodes + " nodes, "
+                            + values + " values, " + getEngine() + (isEmpty() ? ", empty" : "");
+        }
+    }
+
+    private final Message.Builder builder;
+    private final List<EntryReport> entries;
+    private final long elapsedNanos;
+
+    Explanation(Message.Builder builder, List<EntryReport> entries, long elapsedNanos) {
+        this.builder = builder;
+        this.entries = Collections.unmodifiableList(entries);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the message builder, as {@link ProtoBuilder#builder(Object)} would give it
+     */
+    public Message.Builder getBuilder() {
+        return builder;
+    }
+
+    public List<EntryReport> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the time of the whole transform
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder("transform: " + elapsedNanos + "ns");
+        for (EntryReport entry : entries) {
+            report.append('\n').append(entry);
+        }
+
+        return report.toString();
+    }
+}
@@ -0,0 +1,262 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+
+/**
+ * Writes a value into one field of a message builder. The reflective setter goes through the protobuf descriptor API;
+ * the bound setter calls the generated setXxx/addXxx method of the builder class through a method handle that is
+ * resolved once, so the field accessor table of GeneratedMessage is not involved for every value.
+ */
+abstract class FieldSetter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FieldSetter.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Message.Builder.class,
+                    Object.class);
+    private static final MethodType BULK_TYPE = MethodType.methodType(void.class, Message.Builder.class,
+                    Iterable.class);
+
+    abstract void set(Message.Builder target, Object value);
+
+    static FieldSetter reflective(final Descriptors.FieldDescriptor fieldDescriptor) {
+        if (fieldDescriptor.isRepeated()) {
+            return new FieldSetter() {
+                @Override
+                void set(Message.Builder target, Object value) {
+                    target.addRepeatedField(fieldDescriptor, value);
+                }
+            };
+        }
+
+        return new FieldSetter() {
+            @Override
+            void set(Message.Builder target, Object value) {
+                target.setField(fieldDescriptor, value);
+            }
+        };
+    }
+
+    /**
+     * Binds the generated setter of the field in the given builder class. Scalar, string and enum fields are bound;
+     * message fields keep the reflective setter, which also converts messages of a foreign class.
+     *
+     * @return the bound setter, or the reflective one if the field has no generated setter that can be bound
+     */
+    static FieldSetter bind(Descriptors.FieldDescriptor fieldDescriptor, Class<?> builderClass) {
+        Class<?> valueType = getValueType(fieldDescriptor.getJavaType());
+        if (valueType == null || !Message.Builder.class.isAssignableFrom(builderClass)) {
+            return reflective(fieldDescriptor);
+        }
+
+        String name = (fieldDescriptor.isRepeated() ? "add" : "set") + toCamelCase(fieldDescriptor.getName());
+        try {
+            MethodHandle handle;
+            if (valueType == Enum.class) {
+                Method setter = findEnumSetter(builderClass, name);
+                if (setter == null) {
+                    return reflective(fieldDescriptor);
+                }
+                Class<?> enumClass = setter.getParameterTypes()[0];
+                MethodHandle valueOf = MethodHandles.publicLookup().findStatic(enumClass, "valueOf",
+                                MethodType.methodType(enumClass, Descriptors.EnumValueDescriptor.class));
+                handle = MethodHandles.filterArguments(MethodHandles.publicLookup().unreflect(setter), 1, valueOf);
+            } else {
+                handle = MethodHandles.publicLookup().findVirtual(builderClass, name,
+                                MethodType.methodType(builderClass, valueType));
+            }
+            return new BoundSetter(handle.asType(SETTER_TYPE));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            logger.debug("No generated setter {} in {}, using reflection", name, builderClass.getName());
+            return reflective(fieldDescriptor);
+        }
+    }
+
+    /**
+     * Binds the generated addAllXxx method of a repeated field, which adds a whole list of values with one call.
+     * Enum fields are not bound, their generated methods take the java enum rather than the value descriptor.
+     *
+     * @return the bulk adder, or null if the field has no generated method that can be bound
+     */
+    static BulkAdder bindAddAll(Descriptors.FieldDescriptor fieldDescriptor, Class<?> builderClass) {
+        if (!fieldDescriptor.isRepeated() || !Message.Builder.class.isAssignableFrom(builderClass)) {
+            return null;
+        }
+
+        String camelCase = toCamelCase(fieldDescriptor.getName());
+        Class<?> elementType = getElementType(fieldDescriptor.getJavaType(), builderClass, "add" + camelCase);
+        if (elementType == null) {
+            return null;
+        }
+
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().findVirtual(builderClass, "addAll" + camelCase,
+                            MethodType.methodType(builderClass, Iterable.class));
+            return new BulkAdder(handle.asType(BULK_TYPE), elementType);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            logger.debug("No generated addAll{} in {}, adding values one by one", camelCase, builderClass.getName());
+            return null;
+        }
+    }
+
+    private static Class<?> getElementType(Descriptors.FieldDescriptor.JavaType javaType, Class<?> builderClass,
+                    String adderName) {
+        switch (javaType) {
+            case INT:
+                return Integer.class;
+            case LONG:
+                return Long.class;
+            case FLOAT:
+                return Float.class;
+            case DOUBLE:
+                return Double.class;
+            case BOOLEAN:
+                return Boolean.class;
+            case STRING:
+                return String.class;
+            case BYTE_STRING:
+                return ByteString.class;
+            case MESSAGE:
+                for (Method method : builderClass.getMethods()) {
+                    if (method.getName().equals(adderName) && method.getParameterTypes().length == 1
+                                    && Message.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                        return method.getParameterTypes()[0];
+                    }
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static Class<?> getValueType(Descriptors.FieldDescriptor.JavaType javaType) {
+        switch (javaType) {
+            case INT:
+                return int.class;
+            case LONG:
+                return long.class;
+            case FLOAT:
+                return float.class;
+            case DOUBLE:
+                return double.class;
+            case BOOLEAN:
+                return boolean.class;
+            case STRING:
+                return String.class;
+            case ENUM:
+                return Enum.class;
+            default:
+                return null;
+        }
+    }
+
+    private static Method findEnumSetter(Class<?> builderClass, String name) {
+        for (Method method : builderClass.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterTypes().length == 1
+                            && method.getParameterTypes()[0].isEnum() && !Modifier.isStatic(method.getModifiers())) {
+                return method;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Converts a field name to the camel case form protoc uses for accessor names, e.g. str_values to StrValues.
+     */
+    static String toCamelCase(String fieldName) {
+        StringBuilder result = new StringBuilder(fieldName.length());
+        boolean capitalizeNext = true;
+        for (int i = 0; i < fieldName.length(); i++) {
+            char c = fieldName.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                result.append(capitalizeNext ? (char) (c - 'a' + 'A') : c);
+                capitalizeNext = false;
+            } else if (c >= 'A' && c <= 'Z') {
+                result.append(c);
+                capitalizeNext = false;
+            } else if (c >= '0' && c <= '9') {
+                result.append(c);
+                capitalizeNext = true;
+            } else {
+                capitalizeNext = true;
+            }
+        }
+
+        return result.toString();
+    }
+
+    private static final class BoundSetter extends FieldSetter {
+
+        private final MethodHandle handle;
+
+        BoundSetter(MethodHandle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        void set(Message.Builder target, Object value) {
+            try {
+                handle.invokeExact(target, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+    /**
+     * Adds a list of values to a repeated field through its generated addAllXxx method, which appends the whole list
+     * to the field with a single copy.
+     */
+    static final class BulkAdder {
+
+        private final MethodHandle handle;
+        private final Class<?> elementType;
+
+        BulkAdder(MethodHandle handle, Class<?> elementType) {
+            this.handle = handle;
+            this.elementType = elementType;
+        }
+
+        /**
+         * Adds the values if they all have the java type of the field. The generated method does not check the
+         * values like addRepeatedField does, so values of any other type are left to the caller.
+         *
+         * @return true if the values were added, false if nothing was done
+         */
+        boolean addAll(Message.Builder target, List<?> values) {
+            for (Object value : values) {
+                if (!elementType.isInstance(value)) {
+                    return false;
+                }
+            }
+
+            try {
+                handle.invokeExact(target, (Iterable) values);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+
+            return true;
+        }
+    }
+}
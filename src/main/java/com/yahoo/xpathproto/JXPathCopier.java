@@ -5,6 +5,7 @@ Copyrights licensed under the BSD License. See the accompanying LICENSE file for
 
 package com.yahoo.xpathproto;
 
+import org.apache.commons.jxpath.CompiledExpression;
 import org.apache.commons.jxpath.JXPathContext;
 import org.apache.commons.jxpath.Pointer;
 import org.slf4j.Logger;
@@ -35,6 +36,15 @@ public class JXPathCopier {
         return context.getRelativeContext(pointer);
     }
 
+    public static JXPathContext getRelativeContext(JXPathContext context, CompiledExpression path) {
+        Pointer pointer = path.getPointer(context, path.toString());
+        if ((pointer == null) || (pointer.getNode() == null)) {
+            return null;
+        }
+
+        return context.getRelativeContext(pointer);
+    }
+
     private static void setTargetField(Builder target, Object sourceObject, String targetField)
         throws IllegalArgumentException {
         Descriptors.FieldDescriptor fieldDescriptor = target.getDescriptorForType().findFieldByName(targetField);
@@ -42,6 +52,11 @@ public class JXPathCopier {
             throw new RuntimeException("Unknown target field in protobuf: " + targetField);
         }
 
+        setTargetField(target, sourceObject, fieldDescriptor);
+    }
+
+    private static void setTargetField(Builder target, Object sourceObject,
+                                       Descriptors.FieldDescriptor fieldDescriptor) {
         if (fieldDescriptor.isRepeated()) {
             target.addRepeatedField(fieldDescriptor, sourceObject);
         } else {
@@ -49,18 +64,20 @@ public class JXPathCopier {
         }
     }
 
-    private final JXPathContext source;
+    private final SourceNode sourceNode;
     private final Builder target;
 
     public JXPathCopier(JXPathContext source, Builder target) {
-        this.source = source;
-        this.target = target;
+        this(new SourceNode(source), target);
+    }
 
-        this.source.setLenient(true);
+    JXPathCopier(SourceNode sourceNode, Builder target) {
+        this.sourceNode = sourceNode;
+        this.target = target;
     }
 
     public JXPathContext getSource() {
-        return source;
+        return sourceNode.getContext();
     }
 
     public Builder getTarget() {
@@ -68,11 +85,15 @@ public class JXPathCopier {
     }
 
     public Object getValue(String path) {
-        return source.getValue(path);
+        return getSource().getValue(path);
+    }
+
+    public Object getValue(CompiledExpression path) {
+        return sourceNode.getValue(path, null);
     }
 
     public JXPathContext getRelativeContext(String path) {
-        return getRelativeContext(source, path);
+        return getRelativeContext(getSource(), path);
     }
 
     public JXPathCopier copyObject(Object sourceObject, String targetField) {
@@ -83,57 +104,58 @@ public class JXPathCopier {
         return this;
     }
 
+    public JXPathCopier copyObject(Object sourceObject, Descriptors.FieldDescriptor fieldDescriptor) {
+        if (sourceObject != null) {
+            setTargetField(target, sourceObject, fieldDescriptor);
+        }
+
+        return this;
+    }
+
     public JXPathCopier copyScalarObject(Object sourceObject, String targetField,
                                          Descriptors.FieldDescriptor fieldDescriptor) {
-        Descriptors.FieldDescriptor.JavaType javaType = fieldDescriptor.getJavaType();
-        switch (javaType) {
-            case INT:
-                copyAsInteger(sourceObject, targetField);
-                break;
-            case LONG:
-                copyAsLong(sourceObject, targetField);
-                break;
-            case FLOAT:
-                copyAsFloat(sourceObject, targetField);
-                break;
-            case DOUBLE:
-                copyAsDouble(sourceObject, targetField);
-                break;
-            case BOOLEAN:
-                copyAsBoolean(sourceObject, targetField);
-                break;
-            case STRING:
-                copyAsString(sourceObject, targetField);
-                break;
-            case BYTE_STRING:
-                throw new RuntimeException("bytes type not handled for field: " + targetField);
-            case ENUM:
-                copyAsEnum(sourceObject, targetField, fieldDescriptor);
-                break;
-            case MESSAGE:
-                throw new RuntimeException("Protobuf Message type not handled: " + targetField);
+        Object value = toScalarValue(sourceObject, fieldDescriptor);
+        if (value != null) {
+            setTargetField(target, value, fieldDescriptor);
         }
 
         return this;
     }
 
+    /**
+     * Converts a source value to the java type of the given field.
+     *
+     * @return the converted value, or null if there is no value or it cannot be converted
+     * @see ScalarCoercer
+     */
+    static Object toScalarValue(Object sourceObject, Descriptors.FieldDescriptor fieldDescriptor) {
+        return ScalarCoercer.forField(fieldDescriptor).coerceNullable(sourceObject);
+    }
+
     public JXPathCopier copyAsScalar(String sourcePath, String targetField) {
         Descriptors.FieldDescriptor fieldDescriptor = target.getDescriptorForType().findFieldByName(targetField);
         if (null == fieldDescriptor) {
             throw new RuntimeException("Unknown target field in protobuf: " + targetField);
         }
 
-        Descriptors.FieldDescriptor.JavaType javaType = fieldDescriptor.getJavaType();
-        boolean repeated = fieldDescriptor.isRepeated();
-        if (repeated) {
-            Iterator iterator = source.iterate(sourcePath);
+        return copyAsScalar(sourcePath, fieldDescriptor);
+    }
+
+    public JXPathCopier copyAsScalar(String sourcePath, Descriptors.FieldDescriptor fieldDescriptor) {
+        return copyAsScalar(JXPathContext.compile(sourcePath), fieldDescriptor);
+    }
+
+    public JXPathCopier copyAsScalar(CompiledExpression sourcePath, Descriptors.FieldDescriptor fieldDescriptor) {
+        ScalarCoercer coercer = ScalarCoercer.forField(fieldDescriptor);
+        if (fieldDescriptor.isRepeated()) {
+            Iterator<?> iterator = sourceNode.iterate(sourcePath, null);
             while (iterator.hasNext()) {
                 Object value = iterator.next();
-                copyScalarObject(value, targetField, fieldDescriptor);
+                copyObject(coercer.coerceNullable(value), fieldDescriptor);
             }
         } else {
-            Object value = source.getValue(sourcePath);
-            copyScalarObject(value, targetField, fieldDescriptor);
+            Object value = sourceNode.getValue(sourcePath, null);
+            copyObject(coercer.coerceNullable(value), fieldDescriptor);
         }
 
         return this;
@@ -144,7 +166,7 @@ public class JXPathCopier {
     }
 
     public JXPathCopier copyAsString(String sourcePath, String targetField) {
-        Object sourceObject = source.getValue(sourcePath);
+        Object sourceObject = getSource().getValue(sourcePath);
         return copyAsString(sourceObject, targetField);
     }
 
@@ -161,8 +183,7 @@ public class JXPathCopier {
     }
     
     public JXPathCopier copyAsEnum(Object sourceObject, String targetField, Descriptors.FieldDescriptor fieldDescriptor) {
-        String enumName = sourceObject.toString();
-        Object value = fieldDescriptor.getEnumType().findValueByName(enumName);
+        Object value = EnumLookup.of(fieldDescriptor.getEnumType()).find(sourceObject);
         if (value != null) {
             setTargetField(target, value, targetField);
         }
@@ -170,7 +191,7 @@ public class JXPathCopier {
     }
 
     public JXPathCopier copyAsInteger(String sourcePath, String targetField) {
-        Object sourceObject = source.getValue(sourcePath);
+        Object sourceObject = getSource().getValue(sourcePath);
         return copyAsInteger(sourceObject, targetField);
     }
 
@@ -179,19 +200,16 @@ public class JXPathCopier {
     }
 
     private JXPathCopier copyAsInteger(Object sourceObject, String targetField) {
-        if (sourceObject != null) {
-            try {
-                Integer object = Integer.parseInt(sourceObject.toString());
-                setTargetField(target, object, targetField);
-            } catch (NumberFormatException nfe) {
-            }
+        Object object = ScalarCoercer.INT.coerceNullable(sourceObject);
+        if (object != null) {
+            setTargetField(target, object, targetField);
         }
 
         return this;
     }
 
     public JXPathCopier copyAsLong(String sourcePath, String targetField) {
-        Object sourceObject = source.getValue(sourcePath);
+        Object sourceObject = getSource().getValue(sourcePath);
         return copyAsLong(sourceObject, targetField);
     }
 
@@ -200,19 +218,16 @@ public class JXPathCopier {
     }
 
     public JXPathCopier copyAsLong(Object sourceObject, String targetField) {
-        if (sourceObject != null) {
-            try {
-                Long object = Long.parseLong(sourceObject.toString());
-                setTargetField(target, object, targetField);
-            } catch (NumberFormatException nfe) {
-            }
+        Object object = ScalarCoercer.LONG.coerceNullable(sourceObject);
+        if (object != null) {
+            setTargetField(target, object, targetField);
         }
 
         return this;
     }
 
     public JXPathCopier copyAsDouble(String sourcePath, String targetField) {
-        Object sourceObject = source.getValue(sourcePath);
+        Object sourceObject = getSource().getValue(sourcePath);
         return copyAsDouble(sourceObject, targetField);
     }
 
@@ -221,19 +236,16 @@ public class JXPathCopier {
     }
 
     public JXPathCopier copyAsDouble(Object sourceObject, String targetField) {
-        if (sourceObject != null) {
-            try {
-                Double object = Double.parseDouble(sourceObject.toString());
-                setTargetField(target, object, targetField);
-            } catch (NumberFormatException nfe) {
-            }
+        Object object = ScalarCoercer.DOUBLE.coerceNullable(sourceObject);
+        if (object != null) {
+            setTargetField(target, object, targetField);
         }
 
         return this;
     }
 
     public JXPathCopier copyAsFloat(String sourcePath, String targetField) {
-        Object sourceObject = source.getValue(sourcePath);
+        Object sourceObject = getSource().getValue(sourcePath);
         return copyAsFloat(sourceObject, targetField);
     }
 
@@ -242,19 +254,16 @@ public class JXPathCopier {
     }
 
     public JXPathCopier copyAsFloat(Object sourceObject, String targetField) {
-        if (sourceObject != null) {
-            try {
-                Float object = Float.parseFloat(sourceObject.toString());
-                setTargetField(target, object, targetField);
-            } catch (NumberFormatException nfe) {
-            }
+        Object object = ScalarCoercer.FLOAT.coerceNullable(sourceObject);
+        if (object != null) {
+            setTargetField(target, object, targetField);
         }
 
         return this;
     }
 
     public JXPathCopier copyAsBoolean(String sourcePath, String targetField) {
-        Object sourceObject = source.getValue(sourcePath);
+        Object sourceObject = getSource().getValue(sourcePath);
         return copyAsBoolean(sourceObject, targetField);
     }
 
@@ -263,12 +272,9 @@ public class JXPathCopier {
     }
 
     public JXPathCopier copyAsBoolean(Object sourceObject, String targetField) {
-        if (sourceObject != null) {
-            try {
-                Boolean object = Boolean.parseBoolean(sourceObject.toString());
-                setTargetField(target, object, targetField);
-            } catch (NumberFormatException nfe) {
-            }
+        Object object = ScalarCoercer.BOOLEAN.coerceNullable(sourceObject);
+        if (object != null) {
+            setTargetField(target, object, targetField);
         }
 
         return this;
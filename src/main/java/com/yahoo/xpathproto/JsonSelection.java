@@ -0,0 +1,157 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The part of a JSON document that a compiled definition can reach. Plain child-step paths select single members;
+ * any other path keeps the whole subtree of the node it is evaluated on, and paths that can leave that subtree (parent
+ * axes, absolute or descendant paths) keep the whole document. Handlers are given the node an entry is evaluated on
+ * rather than the value at their path, and may read any member of it, so that node is kept as a whole.
+ * <p>
+ * {@link #read(JsonParser, ObjectMapper)} streams a document and materializes only the selected members, producing
+ * the same Map/List values as {@code ObjectMapper.readValue(stream, Map.class)} for everything that is kept.
+ */
+final class JsonSelection {
+
+    private static final Pattern CONSTANT_EXPRESSION = Pattern.compile(
+                    "[a-z-]+\\(\\s*(LITERAL)(\\s*,\\s*(LITERAL))*\\s*\\)".replace("LITERAL",
+                                    "'[^']*'|\"[^\"]*\"|-?[0-9]+(\\.[0-9]+)?"));
+    private static final Pattern LITERAL = Pattern.compile("'[^']*'|\"[^\"]*\"");
+    // a slash that starts the path or follows a bracket, comma, operator or space starts an absolute path
+    private static final Pattern LEAVES_SUBTREE = Pattern.compile(
+                    "(^|[(\\[,=<>!|+*\\s-])/|//|\\.\\.|ancestor|preceding|following|parent::|id\\(");
+
+    /**
+     * Builds the selection of the given top level definition.
+     *
+     * @return the selection, or null if the whole document has to be read
+     */
+    static JsonSelection of(CompiledConfig.Definition definition) {
+        JsonSelection root = new JsonSelection();
+        return root.addDefinition(definition, new HashSet<CompiledConfig.Definition>()) ? root : null;
+    }
+
+    private final Map<String, JsonSelection> children = new HashMap<>();
+    private boolean keepAll;
+
+    private JsonSelection() {
+    }
+
+    private JsonSelection child(String name) {
+        JsonSelection child = children.get(name);
+        if (child == null) {
+            child = new JsonSelection();
+            children.put(name, child);
+        }
+
+        return child;
+    }
+
+    private JsonSelection at(PathAccessor accessor) {
+        JsonSelection node = this;
+        for (String step : accessor.getSteps()) {
+            node = node.child(step);
+        }
+
+        return node;
+    }
+
+    /**
+     * @return false if the definition may read outside of the subtree of this node
+     */
+    private boolean addDefinition(CompiledConfig.Definition definition, Set<CompiledConfig.Definition> active) {
+        if (!active.add(definition)) {
+            // recursive definitions can reach any depth
+            keepAll = true;
+            return true;
+        }
+
+        for (CompiledConfig.Entry entry : definition.getEntries()) {
+            if (!addEntry(entry, active)) {
+                return false;
+            }
+        }
+        active.remove(definition);
+
+        return true;
+    }
+
+    private boolean addEntry(CompiledConfig.Entry entry, Set<CompiledConfig.Definition> active) {
+        String path = entry.getPath();
+        if (entry.getKind() == CompiledConfig.Kind.VARIABLE || CONSTANT_EXPRESSION.matcher(path).matches()) {
+            return true;
+        }
+
+        if (leavesSubtree(path)) {
+            return false;
+        }
+
+        PathAccessor accessor = entry.getAccessor();
+        if (accessor == null || entry.getKind() == CompiledConfig.Kind.HANDLER) {
+            keepAll = true;
+            return true;
+        }
+
+        JsonSelection node = at(accessor);
+        if (entry.getKind() == CompiledConfig.Kind.DEFINITION) {
+            return node.addDefinition(entry.getDefinition(), active);
+        }
+
+        // scalar copies may use the whole value, which can still be an object or an array
+        node.keepAll = true;
+        return true;
+    }
+
+    private static boolean leavesSubtree(String path) {
+        return LEAVES_SUBTREE.matcher(LITERAL.matcher(path).replaceAll("''")).find();
+    }
+
+    /**
+     * Reads the value the parser is positioned at, keeping only the selected members.
+     */
+    Object read(JsonParser parser, ObjectMapper mapper) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (keepAll || (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY)) {
+            return mapper.readValue(parser, Object.class);
+        }
+
+        if (token == JsonToken.START_ARRAY) {
+            List<Object> list = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                list.add(read(parser, mapper));
+            }
+            return list;
+        }
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonSelection child = children.get(name);
+            parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+            } else {
+                map.put(name, child.read(parser, mapper));
+            }
+        }
+
+        return map;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.List;
+
+/**
+ * The message a definition writes its entries to. Values handed to a target are already converted to the java type of
+ * the target field, as for {@link com.google.protobuf.Message.Builder#setField}.
+ */
+abstract class MessageTarget {
+
+    /**
+     * Sets a singular field, or adds a value to a repeated field.
+     *
+     * @param entry - the entry whose target field is written
+     * @param value - the value, never null
+     */
+    abstract void set(CompiledConfig.Entry entry, Object value);
+
+    /**
+     * Adds values to a repeated field, in order.
+     *
+     * @param entry - the entry whose repeated target field is written
+     * @param values - the values, none of them null
+     */
+    void addAll(CompiledConfig.Entry entry, List<?> values) {
+        for (Object value : values) {
+            set(entry, value);
+        }
+    }
+
+    /**
+     * Gives the target of the nested definition of an entry: a new message for a definition that names a proto, or
+     * this target for a definition that writes into the message of its caller.
+     */
+    abstract MessageTarget startMessage(CompiledConfig.Entry entry);
+
+    /**
+     * Completes a target given by {@link #startMessage(CompiledConfig.Entry)}. A new nested message is written to the
+     * field of the entry if the entry has a field and all required fields of the message are set.
+     */
+    abstract void endMessage(CompiledConfig.Entry entry, MessageTarget nested);
+}
@@ -0,0 +1,110 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves plain child-step paths such as "src/path" directly against the Map/List trees produced by Jackson, without
+ * going through JXPath's pointer machinery. Only the cases where the result is known to match JXPath are handled; for
+ * anything else (beans, DOM nodes, collections in the middle of a path) {@link #UNRESOLVED} is returned and the caller
+ * falls back to the compiled JXPath expression.
+ */
+final class PathAccessor {
+
+    /**
+     * Returned when the path cannot be resolved without JXPath.
+     */
+    static final Object UNRESOLVED = new Object();
+
+    private static final Pattern SIMPLE_PATH = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(/[A-Za-z_][A-Za-z0-9_]*)*");
+
+    /**
+     * Creates an accessor for the given path.
+     *
+     * @param path - the xpath of a config entry
+     * @return the accessor, or null if the path is not a plain chain of child steps
+     */
+    static PathAccessor compile(String path) {
+        if (!SIMPLE_PATH.matcher(path).matches()) {
+            return null;
+        }
+
+        String[] steps = path.split("/");
+        for (String step : steps) {
+            // operator names are ambiguous in xpath, leave them to the real parser
+            if (step.equals("and") || step.equals("or") || step.equals("div") || step.equals("mod")) {
+                return null;
+            }
+        }
+
+        return new PathAccessor(steps);
+    }
+
+    private final String[] steps;
+
+    private PathAccessor(String[] steps) {
+        this.steps = steps;
+    }
+
+    String[] getSteps() {
+        return steps.clone();
+    }
+
+    /**
+     * Equivalent of JXPath's getValue.
+     *
+     * @param root - the context node
+     * @return the value found at the path, null if there is none, or {@link #UNRESOLVED}
+     */
+    Object getValue(Object root) {
+        if (!(root instanceof Map)) {
+            return UNRESOLVED;
+        }
+
+        Object node = root;
+        for (String step : steps) {
+            if (node == null) {
+                return null;
+            }
+            if (!(node instanceof Map)) {
+                return UNRESOLVED;
+            }
+            node = ((Map) node).get(step);
+        }
+
+        return node;
+    }
+
+    /**
+     * Equivalent of JXPath's iterate and iteratePointers. Lists found at the end of the path are expanded into their
+     * elements; for Map input the node of each pointer is its value.
+     *
+     * @param root - the context node
+     * @return an iterator over the values found at the path, or null if the path cannot be resolved here
+     */
+    Iterator<?> iterate(Object root) {
+        Object value = getValue(root);
+        if (value == UNRESOLVED) {
+            return null;
+        }
+        if (value == null) {
+            return Collections.emptyIterator();
+        }
+        if (value instanceof List) {
+            return ((List<?>) value).iterator();
+        }
+        if (value instanceof Iterable || value.getClass().isArray()) {
+            return null;
+        }
+
+        return Collections.singletonList(value).iterator();
+    }
+}
@@ -7,39 +7,98 @@ package com.yahoo.xpathproto;
 import org.apache.commons.jxpath.JXPathContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
-
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
 import com.yahoo.xpathproto.dataobject.Config;
 import com.yahoo.xpathproto.dataobject.Context;
+import com.yahoo.xpathproto.jfr.TransformEvents;
+import com.yahoo.xpathproto.metrics.TransformMetrics;
 
+/**
+ * Builds protobuf messages out of JSON, XML or POJO input using an xpath based transform config. A ProtoBuilder keeps
+ * no per-call state: every call to {@link #builder(Object)} works on its own JXPath context and variables, so a single
+ * instance can be shared by any number of threads. Custom handlers are shared the same way and must be thread-safe.
+ */
 public class ProtoBuilder {
 
+    /**
+     * The way a compiled transform writes values into the target message.
+     */
+    public enum Engine {
+        /** Fields are set through the protobuf descriptor API (setField / addRepeatedField). */
+        INTERPRETER,
+        /**
+         * Fields of generated messages are set by calling their generated setters through method handles that are
+         * bound once when the config is compiled. Produces the same messages as {@link #INTERPRETER}.
+         */
+        METHOD_HANDLES
+    }
+
+    /**
+     * The order of the messages returned by a batch transform.
+     */
+    public enum BatchOrder {
+        /** Messages are returned in the order of their inputs. */
+        ORDERED,
+        /**
+         * Messages are returned in the order their chunk of inputs finished, so a slow record does not hold back the
+         * results of the others. Messages of the same chunk keep their relative order.
+         */
+        UNORDERED
+    }
+
     private static String DEFAULT_TRANSFORMER = "root_transform";
     private static final Logger logger = LoggerFactory.getLogger(ProtoBuilder.class);
-    private static Cache<String, Config> configCache = CacheBuilder.newBuilder().maximumSize(10).build();
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final Pattern ITEM_PATH = Pattern.compile("[^/\\[\\]@*()$:]+(/[^/\\[\\]@*()$:]+)*");
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    private static final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+
+    static {
+        // feeds are untrusted, so neither external nor internal entities are expanded
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        documentBuilderFactory.setNamespaceAware(true);
+    }
 
-    private Context context;
+    private final Context context;
     private final String builderConfig;
+    private final ConfigRegistry registry;
+    private final CompiledConfig compiledConfig;
     private final String transform;
-    private JXPathContext jXPathContext;
-    
-    private static final Map<String, Config> configs = new ConcurrentHashMap<>();
-    private static final Map<String, CustomHandler> handlers = new ConcurrentHashMap<>();
-    private static final Map<String, Message> defaultInstances = new ConcurrentHashMap<>();
-    private static final ObjectMapper mapper = new ObjectMapper();
+    private final Engine engine;
+    private final TransformMetrics metrics;
+    private volatile Resolved resolved;
 
     /**
      * Instantiates a new proto builder from the config file provided by the user. The default transformation definition
@@ -65,16 +124,100 @@ public class ProtoBuilder {
     /**
      * Instantiates a new proto builder from the config file provided by the user. The transformation definition is also
      * provided by the user and is picked up from the config file. Also, a Context object is used for variable
-     * substitution.
+     * substitution. The context only seeds the variables of each call: variables assigned by the transform are kept
+     * per call and are not written back to it.
      *
      * @param builderConfig - The path to the config file for the corresponding json
      * @param transform - The transformation definition that should be used from the config file.
      * @param context - The context object
      */
     public ProtoBuilder(final String builderConfig, final String transform, final Context context) {
+        this(builderConfig, transform, context, Engine.INTERPRETER);
+    }
+
+    /**
+     * Instantiates a new proto builder from the config file provided by the user, using the given engine to populate
+     * the target messages.
+     *
+     * @param builderConfig - The path to the config file for the corresponding json
+     * @param transform - The transformation definition that should be used from the config file.
+     * @param context - The context object, may be null
+     * @param engine - The engine used to write values into the target messages
+     */
+    public ProtoBuilder(final String builderConfig, final String transform, final Context context,
+                    final Engine engine) {
+        this(ConfigRegistry.getDefault(), builderConfig, transform, context, engine);
+    }
+
+    /**
+     * Instantiates a new proto builder from a config file held by the given registry. If the registry reloads the
+     * config, the builder uses the new config for the transforms that start after the reload.
+     *
+     * @param registry - The registry that loads and holds the config
+     * @param builderConfig - The path to the config file for the corresponding json
+     * @param transform - The transformation definition that should be used from the config file.
+     * @param context - The context object, may be null
+     * @param engine - The engine used to write values into the target messages
+     */
+    public ProtoBuilder(final ConfigRegistry registry, final String builderConfig, final String transform,
+                    final Context context, final Engine engine) {
+        this(registry, builderConfig, transform, context, engine, TransformMetrics.NONE);
+    }
+
+    /**
+     * Instantiates a new proto builder from a config file held by the given registry, recording the time spent by
+     * each definition, entry and handler to the given metrics.
+     *
+     * @param registry - The registry that loads and holds the config
+     * @param builderConfig - The path to the config file for the corresponding json
+     * @param transform - The transformation definition that should be used from the config file.
+     * @param context - The context object, may be null
+     * @param engine - The engine used to write values into the target messages
+     * @param metrics - The metrics the transform times are recorded to
+     */
+    public ProtoBuilder(final ConfigRegistry registry, final String builderConfig, final String transform,
+                    final Context context, final Engine engine, final TransformMetrics metrics) {
         this.builderConfig = builderConfig;
+        this.registry = registry;
+        this.compiledConfig = null;
+        this.transform = transform;
+        this.context = context;
+        this.engine = engine;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Instantiates a new proto builder from a config that was already compiled by the user.
+     *
+     * @param compiledConfig - The compiled config
+     * @param transform - The transformation definition that should be used from the config.
+     * @param context - The context object, may be null
+     * @param engine - The engine used to write values into the target messages
+     */
+    public ProtoBuilder(final CompiledConfig compiledConfig, final String transform, final Context context,
+                    final Engine engine) {
+        this(compiledConfig, transform, context, engine, TransformMetrics.NONE);
+    }
+
+    /**
+     * Instantiates a new proto builder from a config that was already compiled by the user, recording the time spent
+     * by each definition, entry and handler to the given metrics.
+     *
+     * @param compiledConfig - The compiled config
+     * @param transform - The transformation definition that should be used from the config.
+     * @param context - The context object, may be null
+     * @param engine - The engine used to write values into the target messages
+     * @param metrics - The metrics the transform times are recorded to
+     */
+    public ProtoBuilder(final CompiledConfig compiledConfig, final String transform, final Context context,
+                    final Engine engine, final TransformMetrics metrics) {
+        this.builderConfig = null;
+        this.registry = null;
+        this.compiledConfig = compiledConfig;
         this.transform = transform;
         this.context = context;
+        this.engine = engine;
+        this.metrics = metrics;
     }
 
     /**
@@ -84,14 +227,8 @@ public class ProtoBuilder {
      * @return The corresponding message builder object for the input.
      */
     public Message.Builder builder(final Object content) {
-        this.jXPathContext = JXPathContext.newContext(content);
-        this.jXPathContext.setLenient(true);
-
-        if (context == null) {
-            return transformUsing(new Context(), builderConfig, transform);
-        } else {
-            return transformUsing(context, builderConfig, transform);
-        }
+        CompiledConfig.Definition definition = getDefinition();
+        return transformUsing(newVariables(definition), definition, new SourceNode(content));
     }
 
     /**
@@ -104,230 +241,540 @@ public class ProtoBuilder {
         return this.builder(content).build();
     }
 
-    private <T extends Message.Builder> T transformUsing(final Context vars, final String configPath,
-                    final String definitionName) {
-        Config config;
+    /**
+     * Gives a message builder from the content provided, along with the cost of every entry of the config for that
+     * content: its time, the nodes its path selected, the values it wrote and whether its path was resolved by JXPath.
+     * Meant to be run on sample inputs to find the expensive paths of a config; it is slower than
+     * {@link #builder(Object)} and does not record to the metrics of this builder.
+     *
+     * @param content - The content object that is converted to JXPathContext to build the message.
+     * @return The message builder and the report of the transform.
+     */
+    public Explanation explain(final Object content) {
+        CompiledConfig.Definition definition = getDefinition();
+        SlotContext vars = newVariables(definition);
+        ExplainRecorder recorder = new ExplainRecorder();
+        vars.setRecorder(recorder);
+        long start = System.nanoTime();
+        Message.Builder builder = transformUsing(vars, definition, new SourceNode(content));
+        return recorder.toExplanation(builder, System.nanoTime() - start);
+    }
+
+    /**
+     * Encodes the message for the content provided straight into protobuf wire format, without creating message or
+     * builder objects for it or its nested messages. Parsing the bytes gives the message {@link #build(Object)} would
+     * return, though the bytes themselves can differ: fields are written in config order and repeated fields are not
+     * packed.
+     *
+     * @param content - The content object that is converted to JXPathContext to build the message.
+     * @param output - The stream the encoded message is written to, without a length prefix.
+     * @throws IOException if writing to the stream fails
+     * @throws com.google.protobuf.UninitializedMessageException if a required field is not set
+     */
+    public void writeTo(final Object content, final CodedOutputStream output) throws IOException {
+        transformToWire(content).writeTo(output);
+    }
+
+    /**
+     * Encodes the message for the content provided straight into protobuf wire format, see
+     * {@link #writeTo(Object, CodedOutputStream)}.
+     *
+     * @param content - The content object that is converted to JXPathContext to build the message.
+     * @return The encoded message.
+     * @throws com.google.protobuf.UninitializedMessageException if a required field is not set
+     */
+    public byte[] toByteArray(final Object content) {
+        return transformToWire(content).toByteArray();
+    }
+
+    private WireTarget transformToWire(final Object content) {
+        CompiledConfig.Definition definition = getDefinition();
+        SlotContext vars = newVariables(definition);
+        WireTarget target = new WireTarget(definition.getDescriptor());
+        applyMessageTransforms(vars, new SourceNode(content), target, definition);
+        return target;
+    }
+
+    /**
+     * Builds the messages of a batch of inputs in parallel, in input order. See
+     * {@link #buildAll(Iterable, ExecutorService, BatchOrder)}.
+     *
+     * @param contents - The content objects, as they would be passed to {@link #build(Object)}.
+     * @param executor - The executor the transforms run on, e.g. a ForkJoinPool.
+     * @return The messages built from the inputs, in input order.
+     */
+    public List<Message> buildAll(final Iterable<?> contents, final ExecutorService executor) {
+        return buildAll(contents, executor, BatchOrder.ORDERED);
+    }
+
+    /**
+     * Builds the messages of a batch of inputs in parallel. The inputs are split into a few chunks per thread of the
+     * executor (its parallelism for a ForkJoinPool, the number of processors otherwise), and every chunk is built by
+     * one task, so the per-task overhead is shared by many records. The executor is not shut down by this method.
+     * <p>
+     * If an input fails to build, the remaining tasks are cancelled and the exception of the first failure found is
+     * thrown.
+     *
+     * @param contents - The content objects, as they would be passed to {@link #build(Object)}.
+     * @param executor - The executor the transforms run on, e.g. a ForkJoinPool.
+     * @param order - Whether the messages are returned in input order or as their chunks complete.
+     * @return The messages built from the inputs.
+     */
+    public List<Message> buildAll(final Iterable<?> contents, final ExecutorService executor,
+                    final BatchOrder order) {
+        List<Object> inputs = new ArrayList<Object>();
+        for (Object content : contents) {
+            inputs.add(content);
+        }
+        if (inputs.isEmpty()) {
+            return new ArrayList<Message>();
+        }
+
+        int threads = (executor instanceof ForkJoinPool) ? ((ForkJoinPool) executor).getParallelism()
+                        : Runtime.getRuntime().availableProcessors();
+        int chunks = threads * CHUNKS_PER_THREAD;
+        int chunkSize = Math.max(1, (inputs.size() + chunks - 1) / chunks);
+
+        CompletionService<List<Message>> completionService = new ExecutorCompletionService<List<Message>>(executor);
+        List<Future<List<Message>>> futures = new ArrayList<Future<List<Message>>>();
         try {
-            config = configCache.get(configPath, new ConfigLoader(configPath));
+            for (int from = 0; from < inputs.size(); from += chunkSize) {
+                final List<Object> chunk = inputs.subList(from, Math.min(from + chunkSize, inputs.size()));
+                futures.add(completionService.submit(new Callable<List<Message>>() {
+                    @Override
+                    public List<Message> call() {
+                        List<Message> messages = new ArrayList<Message>(chunk.size());
+                        for (Object content : chunk) {
+                            messages.add(build(content));
+                        }
+                        return messages;
+                    }
+                }));
+            }
+
+            List<Message> results = new ArrayList<Message>(inputs.size());
+            if (order == BatchOrder.ORDERED) {
+                for (Future<List<Message>> future : futures) {
+                    results.addAll(future.get());
+                }
+            } else {
+                for (int i = 0; i < futures.size(); i++) {
+                    results.addAll(completionService.take().get());
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the batch transform", e);
         } catch (ExecutionException e) {
-            throw new RuntimeException("There was a problem loading the config from the file: " + configPath);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Batch transform failed", e.getCause());
+        } finally {
+            for (Future<List<Message>> future : futures) {
+                future.cancel(true);
+            }
         }
+    }
 
-        return (T) transformUsing(vars, config, new JXPathCopier(jXPathContext, null), definitionName);
+    /**
+     * Gives a message builder from a JSON document. The document is streamed and only the members that the transform
+     * definition can reach are materialized, instead of reading the whole document into a Map first. The result is the
+     * same as passing the Map read by Jackson to {@link #builder(Object)}.
+     *
+     * @param stream - The JSON document
+     * @return The corresponding message builder object for the input.
+     * @throws IOException if the document cannot be read or parsed
+     */
+    public Message.Builder builderFromJson(final InputStream stream) throws IOException {
+        return builderFromJson(mapper.getFactory().createParser(stream));
     }
 
-    private static Message.Builder transformUsing(final Context vars, final Config config, JXPathCopier copier,
-                    final String definitionName) {
-        Config.Definition definition = config.definitions.get(definitionName);
-        if (null == definition) {
-            throw new IllegalArgumentException("Cannot find transform definition: " + definitionName);
-        }
+    /**
+     * Gives a message builder from a JSON document, see {@link #builderFromJson(InputStream)}.
+     *
+     * @param json - The JSON document
+     * @return The corresponding message builder object for the input.
+     * @throws IOException if the document cannot be parsed
+     */
+    public Message.Builder builderFromJson(final byte[] json) throws IOException {
+        return builderFromJson(mapper.getFactory().createParser(json));
+    }
 
-        if (null != definition.getProto()) {
-            Message.Builder target = createMessageBuilder(definition.getProto());
-            copier = new JXPathCopier(copier.getSource(), target);
-        } else if (copier.getTarget() == null) {
-            throw new IllegalArgumentException("proto class must be specified at the top level definition name: "
-                            + definitionName);
+    private Message.Builder builderFromJson(final JsonParser parser) throws IOException {
+        CompiledConfig.Definition definition = getDefinition();
+        Object content;
+        try {
+            if (parser.nextToken() == null) {
+                throw new IOException("No content to map due to end-of-input");
+            }
+            JsonSelection selection = definition.getJsonSelection();
+            content = (selection == null) ? mapper.readValue(parser, Object.class) : selection.read(parser, mapper);
+        } finally {
+            parser.close();
         }
 
-        return applyTransforms(vars, config, copier, definition);
+        return transformUsing(newVariables(definition), definition, new SourceNode(content));
     }
 
-    private static Message.Builder applyTransforms(final Context vars, final Config config, final JXPathCopier copier,
-                    final Config.Definition definition) {
-        for (Config.Entry transform : definition.getTransforms()) {
-            if (transform.getDefinition() != null) {
-                transformUsingDefinition(vars, config, copier, transform);
-            } else if (transform.getHandler() != null) {
-                transformUsingHandler(vars, config, copier, transform);
-            } else {
-                if (transform.getPath().startsWith("$")) {
-                    Object value = vars.getValue(transform.getPath().substring(1));
-                    if (value != null) {
-                        copier.copyObject(value, transform.getField());
-                    }
-                } else {
-                    if (transform.getField() != null) {
-                        copier.copyAsScalar(transform.getPath(), transform.getField());                        
-                    }
-                }
+    /**
+     * Gives one message per item of an XML document, such as the items of an RSS or Atom feed. The document is
+     * streamed with StAX and each element found at the item path is transformed on its own, as a DOM element, by the
+     * transform definition of this builder, so memory is bounded by the size of one item instead of the whole
+     * document. Paths of the definition are relative to the item element.
+     * <p>
+     * The document is read as the returned iterator advances and the stream is not closed by this method. Parse errors
+     * are thrown from the iterator as RuntimeException.
+     *
+     * @param stream - The XML document
+     * @param itemPath - The local names of the elements leading to an item, e.g. "rss/channel/item"
+     * @return An iterator over the messages built from the items, in document order.
+     */
+    public Iterator<Message> buildFromXml(final InputStream stream, final String itemPath) {
+        if (itemPath == null || !ITEM_PATH.matcher(itemPath).matches()) {
+            throw new IllegalArgumentException("Item path must be a list of element names separated by '/': "
+                            + itemPath);
+        }
 
-                if (transform.getVariable() != null) {
-                    vars.setValue(transform.getVariable(), copier.getValue(transform.getPath()));
-                }
+        final CompiledConfig.Definition definition = getDefinition();
+        if (definition.getPrototype() == null) {
+            throw new IllegalArgumentException("proto class must be specified for the item definition: " + transform);
+        }
+
+        XmlItemIterator items;
+        try {
+            DocumentBuilder documentBuilder;
+            synchronized (documentBuilderFactory) {
+                documentBuilder = documentBuilderFactory.newDocumentBuilder();
             }
+            XMLStreamReader reader;
+            synchronized (xmlInputFactory) {
+                reader = xmlInputFactory.createXMLStreamReader(stream);
+            }
+            items = new XmlItemIterator(reader, documentBuilder, itemPath.split("/"));
+        } catch (XMLStreamException | ParserConfigurationException e) {
+            throw new RuntimeException("There was a problem reading the xml document: " + e.getMessage(), e);
         }
 
-        return copier.getTarget();
+        return Iterators.transform(items, new Function<Element, Message>() {
+            @Override
+            public Message apply(Element item) {
+                return transformUsing(newVariables(definition), definition, new SourceNode(item)).build();
+            }
+        });
     }
 
-    private static void transformUsingDefinition(final Context vars, final Config config, final JXPathCopier copier,
-                    final Config.Entry transform) {
-        boolean isRepeated = false;
-        if (transform.getField() != null) {
-            Descriptors.FieldDescriptor fieldDescriptor =
-                            copier.getTarget().getDescriptorForType().findFieldByName(transform.getField());
-            if (null == fieldDescriptor) {
-                throw new RuntimeException("Unknown target field in protobuf: " + transform.getField());
-            }
+    private CompiledConfig.Definition getDefinition() {
+        // the definition is resolved again only when the registry swapped in a new config
+        Resolved current = resolved;
+        if (current != null && current.isCurrent()) {
+            return current.definition;
+        }
 
-            isRepeated = fieldDescriptor.isRepeated();
+        if (compiledConfig != null) {
+            current = new Resolved(null, compiledConfig, compiledConfig.getDefinition(transform));
+        } else {
+            ConfigRegistry.Handle handle = (current != null && !current.handle.isEvicted()) ? current.handle
+                            : registry.getHandle(builderConfig);
+            CompiledConfig config = handle.getConfig();
+            current = new Resolved(handle, config, config.getDefinition(transform));
         }
+        resolved = current;
+
+        return current.definition;
+    }
+
+    /**
+     * The definition of this builder, resolved from a given config.
+     */
+    private static final class Resolved {
 
-        JXPathContext context = copier.getSource();
-        if (isRepeated) {
-            List list = context.selectNodes(transform.getPath());
-            Iterator iterator = list.iterator();
-            int limit = 0;
-            int count = 0;
+        private final ConfigRegistry.Handle handle;
+        private final CompiledConfig config;
+        private final CompiledConfig.Definition definition;
 
-            if (transform.getLimit() != null) {
-                limit = transform.getLimit();
+        Resolved(ConfigRegistry.Handle handle, CompiledConfig config, CompiledConfig.Definition definition) {
+            this.handle = handle;
+            this.config = config;
+            this.definition = definition;
+        }
+
+        boolean isCurrent() {
+            return handle == null || (handle.getConfig() == config && !handle.isEvicted());
+        }
+    }
+
+    /**
+     * Gives the variables of one call, seeded from the context of this builder.
+     */
+    private SlotContext newVariables(final CompiledConfig.Definition definition) {
+        return new SlotContext(definition.getVariableSlots(), context);
+    }
+
+    private Message.Builder transformUsing(final SlotContext vars, final CompiledConfig.Definition definition,
+                    final SourceNode source) {
+        BuilderTarget target = new BuilderTarget(definition.getPrototype().newBuilderForType(), engine);
+        applyMessageTransforms(vars, source, target, definition);
+        return target.getBuilder();
+    }
+
+    private void applyMessageTransforms(final SlotContext vars, final SourceNode source, final MessageTarget target,
+                    final CompiledConfig.Definition definition) {
+        Object event = TransformEvents.beginMessage();
+        applyTransforms(vars, source, target, definition);
+        if (event != null) {
+            TransformEvents.endMessage(event, definition.getName(), definition.getDescriptor().getFullName(),
+                            vars.getNodeCount());
+        }
+    }
+
+    private void applyTransforms(final SlotContext vars, final SourceNode source, final MessageTarget target,
+                    final CompiledConfig.Definition definition) {
+        vars.countNode();
+        if (vars.getRecorder() != null) {
+            applyExplainedTransforms(vars, source, target, definition);
+            return;
+        }
+        if (metrics.isEnabled()) {
+            applyTimedTransforms(vars, source, target, definition);
+            return;
+        }
+
+        for (CompiledConfig.Entry transform : definition.getEntries()) {
+            applyTransform(vars, source, target, transform);
+        }
+    }
+
+    private void applyTimedTransforms(final SlotContext vars, final SourceNode source, final MessageTarget target,
+                    final CompiledConfig.Definition definition) {
+        long start = System.nanoTime();
+        for (CompiledConfig.Entry transform : definition.getEntries()) {
+            long entryStart = System.nanoTime();
+            applyTransform(vars, source, target, transform);
+            long nanos = System.nanoTime() - entryStart;
+            metrics.recordEntry(definition.getName(), transform.getName(), nanos);
+            if (transform.getKind() == CompiledConfig.Kind.HANDLER) {
+                metrics.recordHandler(transform.getHandler().getClass(), nanos);
             }
-            logger.debug("Applying limit of {} for field {}", limit, transform.getField());
+        }
+        metrics.recordDefinition(definition.getName(), System.nanoTime() - start);
+    }
 
-            while (iterator.hasNext() && (count != limit || limit == 0)) {
-                Object value = iterator.next();
-                JXPathCopier innerCopier = new JXPathCopier(JXPathContext.newContext(value), copier.getTarget());
-                Message.Builder innerBuilder = transformUsing(vars, config, innerCopier, transform.getDefinition());
-                if ((transform.getField() != null) && (null != innerBuilder) && (innerBuilder.isInitialized())) {
-                    copier.copyObject(innerBuilder.build(), transform.getField());
+    private void applyExplainedTransforms(final SlotContext vars, final SourceNode source, final MessageTarget target,
+                    final CompiledConfig.Definition definition) {
+        ExplainRecorder recorder = vars.getRecorder();
+        for (CompiledConfig.Entry transform : definition.getEntries()) {
+            recorder.begin(definition, transform);
+            long start = System.nanoTime();
+            applyTransform(vars, source, target, transform);
+            recorder.end(System.nanoTime() - start);
+        }
+    }
+
+    private void applyTransform(final SlotContext vars, final SourceNode source, final MessageTarget target,
+                    final CompiledConfig.Entry transform) {
+        switch (transform.getKind()) {
+            case DEFINITION:
+                transformUsingDefinition(vars, source, target, transform);
+                break;
+            case HANDLER:
+                transformUsingHandler(vars, source, target, transform);
+                break;
+            case VARIABLE:
+                Object value = vars.getSlot(transform.getVariableSlot());
+                boolean copied = value != null && transform.getField() != null;
+                if (copied) {
+                    target.set(transform, value);
                 }
-                count++;
+                if (vars.getRecorder() != null) {
+                    vars.getRecorder().nodes((value == null) ? 0 : 1);
+                    vars.getRecorder().values(copied ? 1 : 0);
+                }
+                setVariable(vars, source, transform);
+                break;
+            default:
+                if (transform.getField() != null) {
+                    copyAsScalar(vars, source, target, transform);
+                }
+                setVariable(vars, source, transform);
+                break;
+        }
+    }
+
+    private void copyAsScalar(final SlotContext vars, final SourceNode source, final MessageTarget target,
+                    final CompiledConfig.Entry transform) {
+        ExplainRecorder recorder = vars.getRecorder();
+        if (transform.getField().isRepeated()) {
+            Iterator<?> iterator = limit(source.iterate(transform.getExpression(), transform.getAccessor()), transform);
+            if (recorder != null) {
+                recorder.lookup(source.isAccessorUsed());
+            }
+            List<Object> values = new ArrayList<Object>();
+            int found = 0;
+            while (iterator.hasNext()) {
+                Object value = transform.coerce(iterator.next());
+                if (value != null) {
+                    values.add(value);
+                }
+                found++;
+            }
+            target.addAll(transform, values);
+            if (recorder != null) {
+                recorder.nodes(found);
+                recorder.values(values.size());
             }
         } else {
-            JXPathContext innerContext = JXPathCopier.getRelativeContext(context, transform.getPath());
-            if (innerContext != null) {
-                JXPathCopier innerCopier = new JXPathCopier(innerContext, copier.getTarget());
-                Message.Builder innerBuilder = transformUsing(vars, config, innerCopier, transform.getDefinition());
-                if ((transform.getField() != null) && (null != innerBuilder) && (innerBuilder.isInitialized())) {
-                    copier.copyObject(innerBuilder.build(), transform.getField());
+            Object found = source.getValue(transform.getExpression(), transform.getAccessor());
+            Object value = transform.coerce(found);
+            if (value != null) {
+                target.set(transform, value);
+            }
+            if (recorder != null) {
+                recorder.lookup(source.isAccessorUsed());
+                recorder.nodes((found == null) ? 0 : 1);
+                recorder.values((value == null) ? 0 : 1);
+            }
+        }
+    }
+
+    /**
+     * Stops the given iterator after the limit of the entry, if it has one. The source iterators are lazy, so matches
+     * past the limit are never evaluated.
+     */
+    private static Iterator<?> limit(final Iterator<?> iterator, final CompiledConfig.Entry transform) {
+        int limit = transform.getLimit();
+        if (limit == 0) {
+            return iterator;
+        }
+
+        logger.debug("Applying limit of {} for field {}", limit, transform.getField().getName());
+        return Iterators.limit(iterator, limit);
+    }
+
+    private void setVariable(final SlotContext vars, final SourceNode source, final CompiledConfig.Entry transform) {
+        if (transform.getAssignedSlot() >= 0) {
+            Object value = source.getValue(transform.getExpression(), transform.getAccessor());
+            vars.setSlot(transform.getAssignedSlot(), value);
+            ExplainRecorder recorder = vars.getRecorder();
+            if (recorder != null) {
+                recorder.lookup(source.isAccessorUsed());
+                // the nodes of an entry with a field were counted when its value was copied
+                if (transform.getKind() == CompiledConfig.Kind.SCALAR && transform.getField() == null) {
+                    recorder.nodes((value == null) ? 0 : 1);
                 }
             }
         }
     }
 
-    private static void transformUsingHandler(final Context vars, final Config config, final JXPathCopier copier,
-                    final Config.Entry transform) {
-        JXPathContext context = copier.getSource();
-        CustomHandler handler = createHandler(transform.getHandler());
-        
-        Descriptors.FieldDescriptor fieldDescriptor = null;
-        
-        if (transform.getField() != null) {
-            fieldDescriptor = copier.getTarget().getDescriptorForType().findFieldByName(transform.getField());
-            if (null == fieldDescriptor) {
-                throw new RuntimeException("Unknown target field in protobuf: " + transform.getField());
+    private void transformUsingDefinition(final SlotContext vars, final SourceNode source, final MessageTarget target,
+                    final CompiledConfig.Entry transform) {
+        CompiledConfig.Definition definition = transform.getDefinition();
+        Object event = TransformEvents.beginDefinition();
+        ExplainRecorder recorder = vars.getRecorder();
+        int count = 0;
+        if (transform.isRepeated()) {
+            Iterator<?> nodes = source.iterateNodes(transform.getExpression(), transform.getAccessor());
+            if (recorder != null) {
+                recorder.lookup(source.isAccessorUsed());
+            }
+            Iterator<?> iterator = limit(nodes, transform);
+            while (iterator.hasNext()) {
+                Object value = iterator.next();
+                MessageTarget inner = target.startMessage(transform);
+                applyTransforms(vars, new SourceNode(value), inner, definition);
+                target.endMessage(transform, inner);
+                count++;
+            }
+        } else {
+            SourceNode child = source.getChild(transform.getExpression(), transform.getAccessor());
+            if (recorder != null) {
+                recorder.lookup(source.isAccessorUsed());
             }
+            if (child != null) {
+                MessageTarget inner = target.startMessage(transform);
+                applyTransforms(vars, child, inner, definition);
+                target.endMessage(transform, inner);
+                count++;
+            }
+        }
+        if (event != null) {
+            TransformEvents.endDefinition(event, definition.getName(), fieldName(transform), transform.getPath(),
+                            count);
         }
-        
+        if (recorder != null) {
+            recorder.nodes(count);
+            recorder.values(count);
+        }
+    }
+
+    private static String fieldName(final CompiledConfig.Entry transform) {
+        return (transform.getField() == null) ? null : transform.getField().getName();
+    }
+
+    private void transformUsingHandler(final SlotContext vars, final SourceNode source, final MessageTarget target,
+                    final CompiledConfig.Entry transform) {
+        JXPathContext context = source.getContext();
+        CustomHandler handler = transform.getHandler();
+        Descriptors.FieldDescriptor fieldDescriptor = transform.getField();
+        Config.Entry entry = transform.getSource();
+        Object event = TransformEvents.beginHandler();
+
         Object handlerValue = null;
-        
+
         if (handler instanceof ObjectToFieldHandler) {
             ObjectToFieldHandler fieldHandler = (ObjectToFieldHandler) handler;
             if (fieldDescriptor != null && fieldDescriptor.isRepeated()) {
-                List<Object> values = fieldHandler.getRepeatedProtoValue(context, vars, transform);
+                List<Object> values = fieldHandler.getRepeatedProtoValue(context, vars, entry);
                 handlerValue = values;
+                List<Object> nonNullValues = new ArrayList<Object>(values.size());
                 for (Object value : values) {
                     if (value != null) {
-                        copier.copyObject(value, transform.getField());
+                        nonNullValues.add(value);
                     }
                 }
+                target.addAll(transform, nonNullValues);
             } else {
-                Object value = fieldHandler.getProtoValue(context, vars, transform);
-                if(fieldDescriptor != null) {
-                    copier.copyObject(value, transform.getField());
+                Object value = fieldHandler.getProtoValue(context, vars, entry);
+                if (fieldDescriptor != null && value != null) {
+                    target.set(transform, value);
                 }
                 handlerValue = value;
             }
-        } else if (handler instanceof ObjectToProtoHandler) {
+        } else {
             ObjectToProtoHandler protoHandler = (ObjectToProtoHandler) handler;
             if (fieldDescriptor != null && fieldDescriptor.isRepeated()) {
-                List<Message.Builder> builders = protoHandler.getRepeatedProtoBuilder(context, vars, transform);
-                List<Message> messages = new ArrayList<Message>();
+                List<Message.Builder> builders = protoHandler.getRepeatedProtoBuilder(context, vars, entry);
+                List<Message> messages = new ArrayList<Message>(builders.size());
                 for (Message.Builder builder : builders) {
-                    Message msg = builder.build();
-                    messages.add(msg);
-                    copier.copyObject(msg, transform.getField());
+                    messages.add(builder.build());
                 }
+                target.addAll(transform, messages);
                 handlerValue = messages;
             } else {
-                Message.Builder builder = protoHandler.getProtoBuilder(context, vars, transform);
+                Message.Builder builder = protoHandler.getProtoBuilder(context, vars, entry);
                 if (builder != null) {
                     Message msg = builder.build();
                     handlerValue = msg;
-                    if(fieldDescriptor != null) {
-                        copier.copyObject(msg, transform.getField());
+                    if (fieldDescriptor != null) {
+                        target.set(transform, msg);
                     }
                 }
             }
-        } else {
-            throw new RuntimeException(
-                            "Handler must implement one of the ObjectToProtoHandler or ObjectFieldHandler interface: "
-                                            + transform.getHandler());
         }
-        if(transform.getVariable() != null && handlerValue != null) {
-            vars.setValue(transform.getVariable(), handlerValue);
-        }
-    }
-
-    private static void invokeProtoHandler(final Context vars, final JXPathCopier copier, final Config.Entry transform,
-                    final Descriptors.FieldDescriptor fieldDescriptor, final JXPathContext context,
-                    final ObjectToProtoHandler handler) {
-        if (fieldDescriptor.isRepeated()) {
-            List<Message.Builder> builders = handler.getRepeatedProtoBuilder(context, vars, transform);
-            for (Message.Builder builder : builders) {
-                copier.copyObject(builder.build(), transform.getField());
-            }
-        } else {
-            Message.Builder builder = handler.getProtoBuilder(context, vars, transform);
-            if (builder != null) {
-                copier.copyObject(builder.build(), transform.getField());
-            }
+        if (transform.getAssignedSlot() >= 0 && handlerValue != null) {
+            vars.setSlot(transform.getAssignedSlot(), handlerValue);
         }
-    }
-
-    private static void invokeFieldHandler(final Context vars, final JXPathCopier copier, final Config.Entry transform,
-                    final Descriptors.FieldDescriptor fieldDescriptor, final JXPathContext context,
-                    final ObjectToFieldHandler handler) {
-        if (fieldDescriptor.isRepeated()) {
-            List<Object> values = handler.getRepeatedProtoValue(context, vars, transform);
-            for (Object value : values) {
-                if (value != null) {
-                    copier.copyObject(value, transform.getField());
-                }
+        if (event != null || vars.getRecorder() != null) {
+            int values = (handlerValue instanceof List) ? ((List) handlerValue).size() : (handlerValue == null) ? 0 : 1;
+            if (event != null) {
+                TransformEvents.endHandler(event, handler.getClass(), fieldName(transform), transform.getPath(),
+                                values);
             }
-        } else {
-            Object value = handler.getProtoValue(context, vars, transform);
-            copier.copyObject(value, transform.getField());
-        }
-    }
-
-    private static CustomHandler createHandler(String className) {
-        CustomHandler handler = handlers.get(className);
-        if (null == handler) {
-            try {
-                handler = (CustomHandler) Class.forName(className).newInstance();
-                handlers.put(className, handler);
-            } catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-                throw new RuntimeException("Failed to create the handler: " + className, e);
+            if (vars.getRecorder() != null) {
+                vars.getRecorder().nodes(values);
+                vars.getRecorder().values((fieldDescriptor == null) ? 0 : values);
             }
         }
-
-        return handler;
-    }
-
-    private static Message.Builder createMessageBuilder(final String className) {
-        Message defaultInstance = defaultInstances.get(className);
-        try {
-            Class messageClass = Class.forName(className);
-            Method getDefaultInstanceMethod = messageClass.getMethod("getDefaultInstance", (Class[]) null);
-            defaultInstance = (Message) getDefaultInstanceMethod.invoke((Object[]) null, (Object[]) null);
-            defaultInstances.put(className, defaultInstance);
-        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException(e);
-        }
-        return defaultInstance.newBuilderForType();
     }
 }
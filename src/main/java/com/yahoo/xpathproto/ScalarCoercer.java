@@ -0,0 +1,171 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.Map;
+
+import com.google.protobuf.Descriptors;
+
+/**
+ * Converts source values to the java type of one kind of field. The coercer is picked once per field from its java
+ * type, and converts by the class of the source value: boxed integers, longs, shorts and bytes are converted without
+ * going through a string, strings are parsed with {@link ScalarParser}, and other values are parsed from their string
+ * form. The results are the same as parsing the string form of every value: an integer that does not fit the field
+ * is rejected, and floating point values are converted to another floating point type through their decimal form.
+ * Booleans are only parsed from "true" and "false", and enum values are found with an {@link EnumLookup}.
+ */
+abstract class ScalarCoercer {
+
+    static final ScalarCoercer INT = new ScalarCoercer() {
+        @Override
+        Object coerce(Object value) {
+            if (value instanceof Integer) {
+                return value;
+            }
+            if (isIntegral(value)) {
+                long number = ((Number) value).longValue();
+                return (number == (int) number) ? Integer.valueOf((int) number) : null;
+            }
+
+            return ScalarParser.parseInt(value.toString());
+        }
+    };
+
+    static final ScalarCoercer LONG = new ScalarCoercer() {
+        @Override
+        Object coerce(Object value) {
+            if (value instanceof Long) {
+                return value;
+            }
+            if (isIntegral(value)) {
+                return ((Number) value).longValue();
+            }
+
+            return ScalarParser.parseLong(value.toString());
+        }
+    };
+
+    static final ScalarCoercer FLOAT = new ScalarCoercer() {
+        @Override
+        Object coerce(Object value) {
+            if (value instanceof Float) {
+                return value;
+            }
+            if (isIntegral(value)) {
+                return ((Number) value).floatValue();
+            }
+
+            return ScalarParser.parseFloat(value.toString());
+        }
+    };
+
+    static final ScalarCoercer DOUBLE = new ScalarCoercer() {
+        @Override
+        Object coerce(Object value) {
+            if (value instanceof Double) {
+                return value;
+            }
+            if (isIntegral(value)) {
+                return ((Number) value).doubleValue();
+            }
+
+            return ScalarParser.parseDouble(value.toString());
+        }
+    };
+
+    static final ScalarCoercer BOOLEAN = new ScalarCoercer() {
+        @Override
+        Object coerce(Object value) {
+            if (value instanceof Boolean) {
+                return value;
+            }
+
+            return ScalarParser.parseBoolean(value.toString());
+        }
+    };
+
+    static final ScalarCoercer STRING = new ScalarCoercer() {
+        @Override
+        Object coerce(Object value) {
+            return value.toString();
+        }
+    };
+
+    /**
+     * Converts a non null source value.
+     *
+     * @return the converted value, or null if the value cannot be converted
+     */
+    abstract Object coerce(Object value);
+
+    /**
+     * Gives the coercer for the java type of the given field.
+     */
+    static ScalarCoercer forField(Descriptors.FieldDescriptor fieldDescriptor) {
+        return forField(fieldDescriptor, null);
+    }
+
+    /**
+     * Gives the coercer for the java type of the given field, matching the given aliases for an enum field.
+     *
+     * @param aliases - enum value names by alias, may be null
+     */
+    static ScalarCoercer forField(final Descriptors.FieldDescriptor fieldDescriptor, Map<String, String> aliases) {
+        switch (fieldDescriptor.getJavaType()) {
+            case INT:
+                return INT;
+            case LONG:
+                return LONG;
+            case FLOAT:
+                return FLOAT;
+            case DOUBLE:
+                return DOUBLE;
+            case BOOLEAN:
+                return BOOLEAN;
+            case STRING:
+                return STRING;
+            case ENUM:
+                final EnumLookup lookup = EnumLookup.of(fieldDescriptor.getEnumType(), aliases);
+                return new ScalarCoercer() {
+                    @Override
+                    Object coerce(Object value) {
+                        return lookup.find(value);
+                    }
+                };
+            case BYTE_STRING:
+                return unsupported("bytes type not handled for field: " + fieldDescriptor.getName());
+            default:
+                return unsupported("Protobuf Message type not handled: " + fieldDescriptor.getName());
+        }
+    }
+
+    /**
+     * Converts a source value to the java type of the given field.
+     *
+     * @return the converted value, or null if there is no value or it cannot be converted
+     */
+    Object coerceNullable(Object value) {
+        return (value == null) ? null : coerce(value);
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    private static ScalarCoercer unsupported(final String message) {
+        return new ScalarCoercer() {
+            @Override
+            Object coerce(Object value) {
+                throw new RuntimeException(message);
+            }
+
+            @Override
+            Object coerceNullable(Object value) {
+                throw new RuntimeException(message);
+            }
+        };
+    }
+}
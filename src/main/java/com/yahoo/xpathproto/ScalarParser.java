@@ -0,0 +1,179 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+/**
+ * Parses strings into scalar values without throwing. Every parser returns null for a string it rejects, so dirty
+ * input does not cost an exception and a stack trace per value.
+ * <p>
+ * The numeric parsers accept exactly the strings accepted by {@link Integer#parseInt(String)},
+ * {@link Long#parseLong(String)}, {@link Float#parseFloat(String)} and {@link Double#parseDouble(String)}: a string
+ * is checked against their grammar first, and only then handed to them.
+ */
+final class ScalarParser {
+
+    private ScalarParser() {
+    }
+
+    /**
+     * @return the int value of the string, or null if it is not a decimal integer in the range of an int
+     */
+    static Integer parseInt(String s) {
+        return isInteger(s, Integer.MIN_VALUE, Integer.MAX_VALUE) ? Integer.valueOf(Integer.parseInt(s)) : null;
+    }
+
+    /**
+     * @return the long value of the string, or null if it is not a decimal integer in the range of a long
+     */
+    static Long parseLong(String s) {
+        return isInteger(s, Long.MIN_VALUE, Long.MAX_VALUE) ? Long.valueOf(Long.parseLong(s)) : null;
+    }
+
+    /**
+     * @return the float value of the string, or null if it is not a floating point literal
+     */
+    static Float parseFloat(String s) {
+        return isFloatingPoint(s) ? Float.valueOf(Float.parseFloat(s)) : null;
+    }
+
+    /**
+     * @return the double value of the string, or null if it is not a floating point literal
+     */
+    static Double parseDouble(String s) {
+        return isFloatingPoint(s) ? Double.valueOf(Double.parseDouble(s)) : null;
+    }
+
+    /**
+     * @return true or false for the strings "true" and "false", ignoring case, or null for any other string
+     */
+    static Boolean parseBoolean(String s) {
+        if ("true".equalsIgnoreCase(s)) {
+            return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase(s)) {
+            return Boolean.FALSE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks a decimal integer with an optional sign, accumulating it negatively as Long.parseLong does so that the
+     * range check cannot overflow.
+     */
+    private static boolean isInteger(String s, long min, long max) {
+        int length = s.length();
+        if (length == 0) {
+            return false;
+        }
+
+        int i = 0;
+        long limit = -max;
+        char first = s.charAt(0);
+        if (first == '-' || first == '+') {
+            if (length == 1) {
+                return false;
+            }
+            if (first == '-') {
+                limit = min;
+            }
+            i++;
+        }
+
+        long multiplyMin = limit / 10;
+        long result = 0;
+        for (; i < length; i++) {
+            int digit = Character.digit(s.charAt(i), 10);
+            if (digit < 0 || result < multiplyMin) {
+                return false;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return false;
+            }
+            result -= digit;
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks the grammar of {@link Double#valueOf(String)}: surrounding whitespace, an optional sign, then NaN,
+     * Infinity, a decimal literal or a hexadecimal literal, the last two with an optional type suffix.
+     */
+    private static boolean isFloatingPoint(String s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int i = start;
+        if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            i++;
+        }
+        if (s.startsWith("NaN", i)) {
+            return i + 3 == end;
+        }
+        if (s.startsWith("Infinity", i)) {
+            return i + 8 == end;
+        }
+
+        boolean hex = end - i > 1 && s.charAt(i) == '0' && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X');
+        if (hex) {
+            i += 2;
+        }
+
+        int digits = 0;
+        while (i < end && isDigit(s.charAt(i), hex)) {
+            i++;
+            digits++;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(s.charAt(i), hex)) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+
+        // the binary exponent of a hexadecimal literal is required, the exponent of a decimal literal is optional
+        char exponent = hex ? 'p' : 'e';
+        if (i < end && Character.toLowerCase(s.charAt(i)) == exponent) {
+            i++;
+            if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < end && isDigit(s.charAt(i), false)) {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        } else if (hex) {
+            return false;
+        }
+
+        if (i == end) {
+            return true;
+        }
+
+        char suffix = s.charAt(i);
+        return i + 1 == end && (suffix == 'f' || suffix == 'F' || suffix == 'd' || suffix == 'D');
+    }
+
+    private static boolean isDigit(char c, boolean hex) {
+        return (c >= '0' && c <= '9') || (hex && ((c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')));
+    }
+}
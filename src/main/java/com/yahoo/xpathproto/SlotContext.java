@@ -0,0 +1,114 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.yahoo.xpathproto.dataobject.Context;
+
+/**
+ * The variables of one transform call. Variables used by the config live in an array indexed by their
+ * {@link VariableSlots slot}; other names, such as variables only known to a custom handler, are kept in a map that is
+ * created when first needed. Lookups by name through the {@link Context} API still work, so handlers see the same
+ * variables as before.
+ */
+final class SlotContext extends Context {
+
+    private final VariableSlots slots;
+    private final Object[] values;
+    private final Context seed;
+    private Map<String, Object> others;
+    private int nodes;
+    private ExplainRecorder recorder;
+
+    /**
+     * @param slots - the variable slots of the compiled config
+     * @param seed - the variables given to the ProtoBuilder, may be null; they are read but never modified
+     */
+    SlotContext(VariableSlots slots, Context seed) {
+        this.slots = slots;
+        this.values = new Object[slots.size()];
+        this.seed = seed;
+        if (seed != null) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = seed.getValue(slots.getName(i));
+            }
+        }
+    }
+
+    Object getSlot(int slot) {
+        return values[slot];
+    }
+
+    void setSlot(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    /**
+     * Counts a source node a definition is applied to.
+     */
+    void countNode() {
+        nodes++;
+    }
+
+    /**
+     * @return the number of source nodes definitions were applied to in this call, including the input
+     */
+    int getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * @return the recorder of a call made by {@link ProtoBuilder#explain(Object)}, null for other calls
+     */
+    ExplainRecorder getRecorder() {
+        return recorder;
+    }
+
+    void setRecorder(ExplainRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public Object getValue(String name) {
+        int slot = slots.indexOf(name);
+        if (slot >= 0) {
+            return values[slot];
+        }
+        if (others != null && others.containsKey(name)) {
+            return others.get(name);
+        }
+
+        return (seed == null) ? null : seed.getValue(name);
+    }
+
+    @Override
+    public void setValue(String name, Object value) {
+        int slot = slots.indexOf(name);
+        if (slot >= 0) {
+            values[slot] = value;
+        } else {
+            if (others == null) {
+                others = new HashMap<>();
+            }
+            others.put(name, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        Map<String, Object> variables = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            variables.put(slots.getName(i), values[i]);
+        }
+        if (others != null) {
+            variables.putAll(others);
+        }
+
+        return "Context [variables=" + variables + "]";
+    }
+}
@@ -0,0 +1,150 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import org.apache.commons.jxpath.CompiledExpression;
+import org.apache.commons.jxpath.JXPathContext;
+import org.apache.commons.jxpath.Pointer;
+
+import java.util.Iterator;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+
+/**
+ * The input node a definition is applied to. The JXPath context for the node is only created when an entry actually
+ * needs JXPath, so a record whose paths are all resolved by a {@link PathAccessor} never builds one. The context is
+ * cached in the node without synchronization, so a node is only used by the call that created it.
+ */
+final class SourceNode {
+
+    private static final Function<Object, Object> POINTER_NODE = new Function<Object, Object>() {
+        @Override
+        public Object apply(Object pointer) {
+            return ((Pointer) pointer).getNode();
+        }
+    };
+
+    private final Object node;
+    private final SourceNode parent;
+    private final CompiledExpression path;
+    private JXPathContext context;
+    private boolean accessorUsed;
+
+    /**
+     * Wraps an existing JXPath context.
+     */
+    SourceNode(JXPathContext context) {
+        this(context.getContextBean(), null, null);
+        this.context = context;
+        this.context.setLenient(true);
+    }
+
+    /**
+     * A node whose JXPath context is created with {@link JXPathContext#newContext(Object)} when needed.
+     */
+    SourceNode(Object node) {
+        this(node, null, null);
+    }
+
+    /**
+     * A node that was found at the given path of its parent. Its JXPath context, when needed, is the relative context
+     * of the parent at that path, so parent axes and variables behave exactly as without the fast path.
+     */
+    SourceNode(Object node, SourceNode parent, CompiledExpression path) {
+        this.node = node;
+        this.parent = parent;
+        this.path = path;
+    }
+
+    Object getNode() {
+        return node;
+    }
+
+    JXPathContext getContext() {
+        if (context == null) {
+            if (parent == null) {
+                context = JXPathContext.newContext(node);
+            } else {
+                JXPathContext parentContext = parent.getContext();
+                context = parentContext.getRelativeContext(path.getPointer(parentContext, path.toString()));
+            }
+            context.setLenient(true);
+        }
+
+        return context;
+    }
+
+    /**
+     * @return whether the last path looked up on this node was resolved by its accessor rather than by JXPath
+     */
+    boolean isAccessorUsed() {
+        return accessorUsed;
+    }
+
+    Object getValue(CompiledExpression path, PathAccessor accessor) {
+        if (accessor != null) {
+            Object value = accessor.getValue(node);
+            if (value != PathAccessor.UNRESOLVED) {
+                accessorUsed = true;
+                return value;
+            }
+        }
+
+        accessorUsed = false;
+        return path.getValue(getContext());
+    }
+
+    Iterator<?> iterate(CompiledExpression path, PathAccessor accessor) {
+        if (accessor != null) {
+            Iterator<?> values = accessor.iterate(node);
+            if (values != null) {
+                accessorUsed = true;
+                return values;
+            }
+        }
+
+        accessorUsed = false;
+        return path.iterate(getContext());
+    }
+
+    /**
+     * Gives the node found at the given path, like the pointer used for a relative context.
+     *
+     * @return the child source node, or null if the path does not select a node
+     */
+    SourceNode getChild(CompiledExpression path, PathAccessor accessor) {
+        if (accessor != null) {
+            Object value = accessor.getValue(node);
+            if (value != PathAccessor.UNRESOLVED) {
+                accessorUsed = true;
+                return (value == null) ? null : new SourceNode(value, this, path);
+            }
+        }
+
+        accessorUsed = false;
+        JXPathContext relativeContext = JXPathCopier.getRelativeContext(getContext(), path);
+        return (relativeContext == null) ? null : new SourceNode(relativeContext);
+    }
+
+    /**
+     * Gives the nodes selected by the given path, like JXPath's selectNodes. Each node is a new root for JXPath. Nodes
+     * are found as the iterator advances, so a caller that stops early does not pay for the rest of the matches.
+     */
+    Iterator<?> iterateNodes(CompiledExpression path, PathAccessor accessor) {
+        if (accessor != null) {
+            Iterator<?> values = accessor.iterate(node);
+            if (values != null) {
+                accessorUsed = true;
+                return values;
+            }
+        }
+
+        accessorUsed = false;
+        Iterator<?> pointers = path.iteratePointers(getContext());
+        return Iterators.transform(pointers, POINTER_NODE);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The variables of a compiled config, each with a slot index. Slots are assigned while the config is compiled, so every
+ * variable an entry reads or assigns is known up front and a transform can keep its variables in a plain array.
+ * Instances are not modified after compilation and can be shared between threads.
+ */
+final class VariableSlots {
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Gives the slot of the given variable, assigning a new one if needed. Only used while compiling.
+     */
+    int slot(String name) {
+        Integer index = indexes.get(name);
+        if (index == null) {
+            index = names.size();
+            indexes.put(name, index);
+            names.add(name);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the slot of the given variable, or -1 if no entry of the config uses it
+     */
+    int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return (index == null) ? -1 : index;
+    }
+
+    String getName(int slot) {
+        return names.get(slot);
+    }
+
+    int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.UninitializedMessageException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * A target that encodes fields straight into protobuf wire format, without message or builder objects. Every message
+ * level is encoded into a growable buffer of its own; when a nested message is complete its length is known, and it
+ * is copied into the parent as a length delimited field. Buffers of nested levels are pooled for the whole call.
+ * <p>
+ * Parsing the bytes gives the same message as the builder target. Singular fields keep only their last value, as with
+ * setField: a value that is written again replaces the bytes of the previous one, so a nested message set twice is
+ * not merged. Fields are written in the order of the config rather than by field number, and repeated fields are not
+ * packed; parsers accept both.
+ */
+final class WireTarget extends MessageTarget {
+
+    private final WireTarget root;
+    private final ArrayDeque<WireTarget> free;
+    private final Buffer buffer = new Buffer();
+    private final CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+
+    private Descriptors.Descriptor descriptor;
+    // offsets of the last value of each singular field, by field index, -1 if the field is not set
+    private int[] start = new int[0];
+    private int[] end = new int[0];
+    // number of uninitialized messages written to each field, by field index
+    private int[] uninitialized = new int[0];
+    private int uninitializedCount;
+    private int missingRequired;
+
+    /**
+     * Creates the target of a top level message.
+     */
+    WireTarget(Descriptors.Descriptor descriptor) {
+        this.root = this;
+        this.free = new ArrayDeque<>();
+        reset(descriptor);
+    }
+
+    private WireTarget(WireTarget root) {
+        this.root = root;
+        this.free = null;
+    }
+
+    private void reset(Descriptors.Descriptor descriptor) {
+        this.descriptor = descriptor;
+        buffer.reset();
+
+        List<Descriptors.FieldDescriptor> fields = descriptor.getFields();
+        if (start.length < fields.size()) {
+            start = new int[fields.size()];
+            end = new int[fields.size()];
+            uninitialized = new int[fields.size()];
+        }
+        Arrays.fill(start, -1);
+        Arrays.fill(uninitialized, 0);
+        uninitializedCount = 0;
+        missingRequired = 0;
+        for (Descriptors.FieldDescriptor field : fields) {
+            if (field.isRequired()) {
+                missingRequired++;
+            }
+        }
+    }
+
+    @Override
+    void set(CompiledConfig.Entry entry, Object value) {
+        write(entry.getField(), value);
+    }
+
+    @Override
+    MessageTarget startMessage(CompiledConfig.Entry entry) {
+        CompiledConfig.Definition definition = entry.getDefinition();
+        if (definition.getPrototype() == null) {
+            return this;
+        }
+
+        WireTarget nested = root.free.poll();
+        if (nested == null) {
+            nested = new WireTarget(root);
+        }
+        nested.reset(definition.getDescriptor());
+
+        return nested;
+    }
+
+    @Override
+    void endMessage(CompiledConfig.Entry entry, MessageTarget nested) {
+        if (nested == this) {
+            return;
+        }
+
+        WireTarget message = (WireTarget) nested;
+        try {
+            if (entry.getField() != null && message.isInitialized()) {
+                message.flush();
+                write(entry.getField(), message);
+            }
+        } finally {
+            root.free.push(message);
+        }
+    }
+
+    boolean isInitialized() {
+        return missingRequired == 0 && uninitializedCount == 0;
+    }
+
+    /**
+     * Writes the encoded message to the given stream.
+     *
+     * @throws UninitializedMessageException if a required field is not set, as Message.Builder.build() would
+     */
+    void writeTo(CodedOutputStream stream) throws IOException {
+        checkInitialized();
+        writeRawTo(stream);
+    }
+
+    /**
+     * @return the encoded message
+     * @throws UninitializedMessageException if a required field is not set, as Message.Builder.build() would
+     */
+    byte[] toByteArray() {
+        checkInitialized();
+        return Arrays.copyOf(buffer.array(), buffer.size());
+    }
+
+    private void checkInitialized() {
+        flush();
+        if (!isInitialized()) {
+            throw new UninitializedMessageException(getMissingFields());
+        }
+    }
+
+    private List<String> getMissingFields() {
+        List<String> missing = new ArrayList<>();
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            if ((field.isRequired() && start[field.getIndex()] < 0) || uninitialized[field.getIndex()] > 0) {
+                missing.add(field.getName());
+            }
+        }
+
+        return missing;
+    }
+
+    private void flush() {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void write(Descriptors.FieldDescriptor field, Object value) {
+        int index = field.getIndex();
+        try {
+            if (field.isRepeated()) {
+                writeValue(field, value);
+            } else {
+                flush();
+                if (start[index] >= 0) {
+                    remove(index);
+                } else if (field.isRequired()) {
+                    missingRequired--;
+                }
+                start[index] = buffer.size();
+                writeValue(field, value);
+                flush();
+                end[index] = buffer.size();
+            }
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("Wrong object type used with protocol message reflection.", e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (value instanceof MessageLite && !((MessageLite) value).isInitialized()) {
+            uninitialized[index]++;
+            uninitializedCount++;
+        }
+    }
+
+    /**
+     * Drops the bytes of the current value of a singular field.
+     */
+    private void remove(int index) {
+        int from = start[index];
+        int length = end[index] - from;
+        buffer.remove(from, length);
+        for (int i = 0; i < start.length; i++) {
+            if (start[i] > from) {
+                start[i] -= length;
+                end[i] -= length;
+            }
+        }
+
+        uninitializedCount -= uninitialized[index];
+        uninitialized[index] = 0;
+    }
+
+    private void writeValue(Descriptors.FieldDescriptor field, Object value) throws IOException {
+        int number = field.getNumber();
+        switch (field.getType()) {
+            case DOUBLE:
+                output.writeDouble(number, (Double) value);
+                break;
+            case FLOAT:
+                output.writeFloat(number, (Float) value);
+                break;
+            case INT64:
+                output.writeInt64(number, (Long) value);
+                break;
+            case UINT64:
+                output.writeUInt64(number, (Long) value);
+                break;
+            case INT32:
+                output.writeInt32(number, (Integer) value);
+                break;
+            case FIXED64:
+                output.writeFixed64(number, (Long) value);
+                break;
+            case FIXED32:
+                output.writeFixed32(number, (Integer) value);
+                break;
+            case BOOL:
+                output.writeBool(number, (Boolean) value);
+                break;
+            case STRING:
+                output.writeString(number, (String) value);
+                break;
+            case GROUP:
+                if (value instanceof WireTarget) {
+                    output.writeTag(number, WireFormat.WIRETYPE_START_GROUP);
+                    ((WireTarget) value).writeRawTo(output);
+                    output.writeTag(number, WireFormat.WIRETYPE_END_GROUP);
+                } else {
+                    output.writeGroup(number, (MessageLite) value);
+                }
+                break;
+            case MESSAGE:
+                if (value instanceof WireTarget) {
+                    output.writeTag(number, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                    output.writeRawVarint32(((WireTarget) value).buffer.size());
+                    ((WireTarget) value).writeRawTo(output);
+                } else {
+                    output.writeMessage(number, (MessageLite) value);
+                }
+                break;
+            case BYTES:
+                output.writeBytes(number, (ByteString) value);
+                break;
+            case UINT32:
+                output.writeUInt32(number, (Integer) value);
+                break;
+            case ENUM:
+                output.writeEnum(number, ((Descriptors.EnumValueDescriptor) value).getNumber());
+                break;
+            case SFIXED32:
+                output.writeSFixed32(number, (Integer) value);
+                break;
+            case SFIXED64:
+                output.writeSFixed64(number, (Long) value);
+                break;
+            case SINT32:
+                output.writeSInt32(number, (Integer) value);
+                break;
+            case SINT64:
+                output.writeSInt64(number, (Long) value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported field type: " + field.getType());
+        }
+    }
+
+    private void writeRawTo(CodedOutputStream stream) throws IOException {
+        stream.writeRawBytes(buffer.array(), 0, buffer.size());
+    }
+
+    /**
+     * An unsynchronized byte array output stream that gives access to its array and can drop a range of bytes.
+     */
+    private static final class Buffer extends OutputStream {
+
+        private byte[] bytes = new byte[256];
+        private int count;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        void remove(int from, int length) {
+            System.arraycopy(bytes, from + length, bytes, from, count - from - length);
+            count -= length;
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        int size() {
+            return count;
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+    }
+}
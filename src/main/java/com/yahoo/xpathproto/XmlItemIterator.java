@@ -0,0 +1,140 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Streams an XML document with StAX and gives every element found at the item path as a DOM element of its own. Only
+ * the current item is held in memory: each one is built into a new Document, so an item can be released as soon as it
+ * has been transformed.
+ */
+final class XmlItemIterator extends AbstractIterator<Element> {
+
+    private final XMLStreamReader reader;
+    private final DocumentBuilder documentBuilder;
+    private final String[] itemPath;
+    private final List<String> elementPath = new ArrayList<>();
+
+    /**
+     * @param reader - the reader of the document, closed once the document has been read
+     * @param documentBuilder - the builder used to create the document of each item
+     * @param itemPath - the local names of the elements leading to an item, starting with the document element
+     */
+    XmlItemIterator(XMLStreamReader reader, DocumentBuilder documentBuilder, String[] itemPath) {
+        this.reader = reader;
+        this.documentBuilder = documentBuilder;
+        this.itemPath = itemPath.clone();
+    }
+
+    @Override
+    protected Element computeNext() {
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    elementPath.add(reader.getLocalName());
+                    if (isItem()) {
+                        elementPath.remove(elementPath.size() - 1);
+                        return readItem();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    elementPath.remove(elementPath.size() - 1);
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("There was a problem reading the xml document: " + e.getMessage(), e);
+        }
+
+        return endOfData();
+    }
+
+    private boolean isItem() {
+        return elementPath.size() == itemPath.length && elementPath.equals(Arrays.asList(itemPath));
+    }
+
+    /**
+     * Builds the element the reader is positioned at, leaving the reader at its end tag.
+     */
+    private Element readItem() throws XMLStreamException {
+        Document document = documentBuilder.newDocument();
+        Element item = createElement(document);
+        document.appendChild(item);
+
+        Node current = item;
+        while (current != null) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element element = createElement(document);
+                    current.appendChild(element);
+                    current = element;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = (current == item) ? null : current.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(document.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(document.createCDATASection(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(document.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(document.createProcessingInstruction(reader.getPITarget(),
+                                    reader.getPIData()));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return item;
+    }
+
+    private Element createElement(Document document) {
+        Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                        qualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = emptyToNull(reader.getNamespacePrefix(i));
+            String name = (prefix == null) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                            qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                            reader.getAttributeValue(i));
+        }
+
+        return element;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return (prefix == null || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String value) {
+        return (value == null || value.isEmpty()) ? null : value;
+    }
+}
@@ -47,6 +47,7 @@ public class Config {
         private String handler;
         private String definition;
         private Integer limit;
+        private Map<String, String> aliases;
 
         public String getField() {
             return field;
@@ -96,5 +97,16 @@ public class Config {
             this.limit = limit;
         }
 
+        /**
+         * @return the names of enum values by the other spellings they can have in the source, or null.
+         */
+        public Map<String, String> getAliases() {
+            return aliases;
+        }
+
+        public void setAliases(Map<String, String> aliases) {
+            this.aliases = aliases;
+        }
+
     }
 }
@@ -5,23 +5,28 @@ Copyrights licensed under the BSD License. See the accompanying LICENSE file for
 
 package com.yahoo.xpathproto.dataobject;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
 
 public class Context {
 
-    private final Map<String, Object> variables = new TreeMap<>();
+    // created on the first write, so that subclasses keeping their variables elsewhere do not allocate it
+    private Map<String, Object> variables;
 
     public Object getValue(final String name) {
-        return variables.get(name);
+        return (variables == null) ? null : variables.get(name);
     }
 
     public void setValue(final String name, final Object value) {
+        if (variables == null) {
+            variables = new TreeMap<>();
+        }
         variables.put(name, value);
     }
 
     @Override
     public String toString() {
-        return "Context [variables=" + variables + "]";
+        return "Context [variables=" + ((variables == null) ? Collections.emptyMap() : variables) + "]";
     }
 }
@@ -0,0 +1,155 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.handler;
+
+import org.apache.commons.jxpath.JXPathContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yahoo.xpathproto.ObjectToFieldHandler;
+import com.yahoo.xpathproto.dataobject.Config;
+import com.yahoo.xpathproto.dataobject.Context;
+
+/**
+ * Base of the handlers that convert a date string to seconds since the epoch. Handlers are shared by all threads, so
+ * subclasses parse without any mutable state.
+ * <p>
+ * The last few dates parsed are remembered, since a feed tends to repeat the same timestamps. Dates that cannot be
+ * parsed are counted, and reported in the log at most once a minute rather than one by one.
+ */
+abstract class EpochSecondsHandler implements ObjectToFieldHandler {
+
+    static final long NOT_PARSED = Long.MIN_VALUE;
+
+    private static final int MEMO_SIZE = 64;
+    private static final long LOG_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    // a direct mapped cache of immutable entries, racy updates only lose entries
+    private final Memo[] memo = new Memo[MEMO_SIZE];
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong reportedFailures = new AtomicLong();
+    private final AtomicLong nextReport = new AtomicLong();
+
+    @Override
+    public Object getProtoValue(final JXPathContext context, final Context vars, final Config.Entry entry) {
+        final Object object = context.getValue(entry.getPath());
+        if (null == object) {
+            return null;
+        }
+
+        return parseDate(object.toString());
+    }
+
+    /**
+     * @return the seconds since the epoch as a Long, or null if the date cannot be parsed
+     */
+    public Object parseDate(final String dateStr) {
+        int slot = dateStr.hashCode() & (MEMO_SIZE - 1);
+        Memo cached = memo[slot];
+        if (cached != null && cached.date.equals(dateStr)) {
+            return cached.seconds;
+        }
+
+        long seconds = parseSeconds(dateStr);
+        if (seconds == NOT_PARSED) {
+            failed(dateStr);
+            return null;
+        }
+
+        Long value = seconds;
+        memo[slot] = new Memo(dateStr, value);
+        return value;
+    }
+
+    /**
+     * @return the number of dates that could not be parsed by this handler.
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    @Override
+    public List<Object> getRepeatedProtoValue(final JXPathContext context, final Context vars,
+                    final Config.Entry entry) {
+        throw new UnsupportedOperationException("Invalid operation");
+    }
+
+    /**
+     * @return the seconds since the epoch, or {@link #NOT_PARSED} if the date cannot be parsed
+     */
+    abstract long parseSeconds(String dateStr);
+
+    private void failed(final String dateStr) {
+        long count = failures.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long next = nextReport.get();
+        if (now >= next && nextReport.compareAndSet(next, now + LOG_INTERVAL_MILLIS)) {
+            long reported = reportedFailures.getAndSet(count);
+            logger.error("Failed to parse {} dates since the last report, the last one: {}", count - reported, dateStr);
+        }
+    }
+
+    /**
+     * @return the value of the ASCII digits at the given position, or -1 if a character is not a digit
+     */
+    static int digits(final String s, final int start, final int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    static int daysInMonth(final int year, final int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        }
+
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    /**
+     * @return the seconds since the epoch of a date and time of the proleptic Gregorian calendar, for years from 0 on,
+     *         or NOT_PARSED if a field is out of range
+     */
+    static long toSeconds(int year, int month, int day, int hour, int minute, int second, int offsetSeconds) {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0 || hour > 23
+                        || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return NOT_PARSED;
+        }
+
+        int y = (month <= 2) ? year - 1 : year;
+        int era = ((y >= 0) ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+
+        return days * 86400L + hour * 3600 + minute * 60 + second - offsetSeconds;
+    }
+
+    private static final class Memo {
+
+        private final String date;
+        private final Long seconds;
+
+        Memo(String date, Long seconds) {
+            this.date = date;
+            this.seconds = seconds;
+        }
+    }
+}
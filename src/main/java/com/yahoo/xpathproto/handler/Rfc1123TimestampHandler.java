@@ -0,0 +1,171 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.handler;
+
+/**
+ * Converts an RFC-1123 or RFC-822 date, as used by the pubDate of RSS items, to seconds since the epoch. For example
+ * Tue, 07 May 2013 00:00:00 +0000.
+ * <p>
+ * The day of the week is optional and not checked against the date, the day of the month can have one or two digits,
+ * the year two or four, and the seconds can be left out. Two digit years are taken as 1950 to 2049. Names are matched
+ * ignoring case. The zone is a numeric offset, with or without a colon, or one of UT, UTC, GMT, Z, EST, EDT, CST,
+ * CDT, MST, MDT, PST and PDT. Dates are parsed by hand, without SimpleDateFormat or any shared mutable state.
+ */
+public class Rfc1123TimestampHandler extends EpochSecondsHandler {
+
+    private static final String DAYS = "montuewedthufrisatsun";
+    private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+    private static final String[] ZONES = {"ut", "utc", "gmt", "z", "est", "edt", "cst", "cdt", "mst", "mdt", "pst",
+        "pdt"};
+    private static final int[] ZONE_HOURS = {0, 0, 0, 0, -5, -4, -6, -5, -7, -6, -8, -7};
+
+    @Override
+    long parseSeconds(final String s) {
+        int length = s.length();
+        int i = skipSpaces(s, 0);
+
+        if (i + 4 <= length && s.charAt(i + 3) == ',') {
+            if (indexOfName(DAYS, s, i) < 0) {
+                return NOT_PARSED;
+            }
+            i = skipSpaces(s, i + 4);
+        }
+
+        int start = i;
+        i = skipDigits(s, i, 2);
+        int day = number(s, start, i, 1);
+        int next = skipSpaces(s, i);
+        if (day < 0 || next == i) {
+            return NOT_PARSED;
+        }
+
+        i = next;
+        int month = (i + 3 <= length) ? indexOfName(MONTHS, s, i) + 1 : 0;
+        next = skipSpaces(s, i + 3);
+        if (month == 0 || next == i + 3) {
+            return NOT_PARSED;
+        }
+
+        i = next;
+        start = i;
+        i = skipDigits(s, i, 4);
+        int year;
+        if (i - start == 4) {
+            year = number(s, start, i, 4);
+        } else if (i - start == 2) {
+            year = number(s, start, i, 2);
+            year += (year < 50) ? 2000 : 1900;
+        } else {
+            return NOT_PARSED;
+        }
+        next = skipSpaces(s, i);
+        if (next == i) {
+            return NOT_PARSED;
+        }
+
+        i = next;
+        if (i + 5 > length || s.charAt(i + 2) != ':') {
+            return NOT_PARSED;
+        }
+        int hour = digits(s, i, 2);
+        int minute = digits(s, i + 3, 2);
+        int second = 0;
+        i += 5;
+        if (i < length && s.charAt(i) == ':') {
+            if (i + 3 > length) {
+                return NOT_PARSED;
+            }
+            second = digits(s, i + 1, 2);
+            i += 3;
+        }
+        next = skipSpaces(s, i);
+        if (next == i || hour < 0 || minute < 0 || second < 0) {
+            return NOT_PARSED;
+        }
+
+        int end = length;
+        while (end > next && s.charAt(end - 1) == ' ') {
+            end--;
+        }
+        int offset = parseZone(s, next, end);
+        if (offset == Integer.MIN_VALUE) {
+            return NOT_PARSED;
+        }
+
+        return toSeconds(year, month, day, hour, minute, second, offset);
+    }
+
+    /**
+     * @return the offset of the zone in seconds, or Integer.MIN_VALUE if it is not a known zone
+     */
+    private static int parseZone(final String s, final int start, final int end) {
+        char sign = (start < end) ? s.charAt(start) : ' ';
+        if (sign == '+' || sign == '-') {
+            int hours;
+            int minutes;
+            if (end - start == 5) {
+                hours = digits(s, start + 1, 2);
+                minutes = digits(s, start + 3, 2);
+            } else if (end - start == 6 && s.charAt(start + 3) == ':') {
+                hours = digits(s, start + 1, 2);
+                minutes = digits(s, start + 4, 2);
+            } else {
+                return Integer.MIN_VALUE;
+            }
+            if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+                return Integer.MIN_VALUE;
+            }
+            int offset = (hours * 60 + minutes) * 60;
+            return (sign == '-') ? -offset : offset;
+        }
+
+        for (int zone = 0; zone < ZONES.length; zone++) {
+            if (ZONES[zone].length() == end - start && ZONES[zone].regionMatches(true, 0, s, start, end - start)) {
+                return ZONE_HOURS[zone] * 3600;
+            }
+        }
+
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return the index of the three letter name at the given position in the list of names, or -1
+     */
+    private static int indexOfName(final String names, final String s, final int start) {
+        for (int name = 0; name < names.length(); name += 3) {
+            if (names.regionMatches(true, name, s, start, 3)) {
+                return name / 3;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int skipSpaces(final String s, final int start) {
+        int i = start;
+        while (i < s.length() && s.charAt(i) == ' ') {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static int skipDigits(final String s, final int start, final int max) {
+        int i = start;
+        while (i < s.length() && i - start < max && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return the value of the digits between start and end, or -1 if there are fewer than the given minimum
+     */
+    private static int number(final String s, final int start, final int end, final int min) {
+        return (end - start < min) ? -1 : digits(s, start, end - start);
+    }
+}
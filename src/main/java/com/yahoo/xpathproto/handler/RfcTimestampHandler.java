@@ -5,50 +5,69 @@ Copyrights licensed under the BSD License. See the accompanying LICENSE file for
 
 package com.yahoo.xpathproto.handler;
 
-import org.apache.commons.jxpath.JXPathContext;
-import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.util.List;
+/**
+ * Converts an ISO-8601 date time without milliseconds, such as 2014-01-17T14:11:35Z or 2014-01-17T16:11:35+02:00, to
+ * seconds since the epoch.
+ * <p>
+ * Dates of exactly that shape are parsed by hand without allocating; anything else goes through the Joda
+ * {@link ISODateTimeFormat#dateTimeNoMillis()} formatter, so the accepted dates and their values are the same as with
+ * Joda alone.
+ */
+public class RfcTimestampHandler extends EpochSecondsHandler {
 
-import com.yahoo.xpathproto.ObjectToFieldHandler;
-import com.yahoo.xpathproto.dataobject.Config;
-import com.yahoo.xpathproto.dataobject.Config.Entry;
-import com.yahoo.xpathproto.dataobject.Context;
-
-public class RfcTimestampHandler implements ObjectToFieldHandler {
-
-    private static final Logger logger = LoggerFactory.getLogger(RfcTimestampHandler.class);
     private static DateTimeFormatter formatter = ISODateTimeFormat.dateTimeNoMillis();
 
     @Override
-    public Object getProtoValue(final JXPathContext context, final Context vars, final Config.Entry entry) {
-        final Object object = context.getValue(entry.getPath());
-        if (null == object) {
-            return null;
+    long parseSeconds(final String dateStr) {
+        long seconds = parseIsoSeconds(dateStr);
+        if (seconds != NOT_PARSED) {
+            return seconds;
         }
 
-        return parseDate(object.toString());
-    }
-
-    public Object parseDate(final String dateStr) {
-        DateTime date;
         try {
-            date = formatter.parseDateTime(dateStr).toDateTime(DateTimeZone.UTC);
+            return formatter.parseDateTime(dateStr).toDateTime(DateTimeZone.UTC).getMillis() / 1000;
         } catch (final IllegalArgumentException e) {
-            logger.error("Failed to parse date: " + dateStr, e);
-            return null;
+            return NOT_PARSED;
         }
-
-        return date.getMillis() / 1000;
     }
 
-    @Override
-    public List<Object> getRepeatedProtoValue(final JXPathContext context, final Context vars, final Entry entry) {
-        throw new UnsupportedOperationException("Invalid operation");
+    /**
+     * Parses yyyy-MM-ddTHH:mm:ss followed by Z or an offset of the form +HH:mm or -HH:mm.
+     *
+     * @return the seconds since the epoch, or NOT_PARSED if the date has another shape or a field is out of range
+     */
+    private static long parseIsoSeconds(final String s) {
+        int length = s.length();
+        if ((length != 20 && length != 25) || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                        || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return NOT_PARSED;
+        }
+
+        int offset;
+        char sign = s.charAt(19);
+        if (length == 20) {
+            if (sign != 'Z') {
+                return NOT_PARSED;
+            }
+            offset = 0;
+        } else {
+            int offsetHours = digits(s, 20, 2);
+            int offsetMinutes = digits(s, 23, 2);
+            if ((sign != '+' && sign != '-') || s.charAt(22) != ':' || offsetHours < 0 || offsetHours > 23
+                            || offsetMinutes < 0 || offsetMinutes > 59) {
+                return NOT_PARSED;
+            }
+            offset = (offsetHours * 60 + offsetMinutes) * 60;
+            if (sign == '-') {
+                offset = -offset;
+            }
+        }
+
+        return toSeconds(digits(s, 0, 4), digits(s, 5, 2), digits(s, 8, 2), digits(s, 11, 2), digits(s, 14, 2),
+                        digits(s, 17, 2), offset);
     }
 }
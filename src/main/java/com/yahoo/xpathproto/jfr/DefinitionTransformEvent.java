@@ -0,0 +1,38 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The transform of the nodes found at the path of an entry by a nested definition.
+ */
+@Name("com.yahoo.xpathproto.DefinitionTransform")
+@Label("Definition Transform")
+@Description("The transform of the nodes at the path of an entry by a nested definition")
+@Category("XPath Proto Builder")
+@Enabled(false)
+@StackTrace(false)
+public final class DefinitionTransformEvent extends jdk.jfr.Event {
+
+    @Label("Definition")
+    String definition;
+
+    @Label("Field")
+    String field;
+
+    @Label("Path")
+    String path;
+
+    @Label("Nodes")
+    @Description("The number of nodes found at the path and transformed")
+    int nodes;
+}
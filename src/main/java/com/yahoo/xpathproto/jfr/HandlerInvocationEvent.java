@@ -0,0 +1,38 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The call of a custom handler for an entry.
+ */
+@Name("com.yahoo.xpathproto.HandlerInvocation")
+@Label("Handler Invocation")
+@Description("The call of a custom handler for an entry")
+@Category("XPath Proto Builder")
+@Enabled(false)
+@StackTrace(false)
+public final class HandlerInvocationEvent extends jdk.jfr.Event {
+
+    @Label("Handler")
+    String handler;
+
+    @Label("Field")
+    String field;
+
+    @Label("Path")
+    String path;
+
+    @Label("Values")
+    @Description("The number of values or messages returned by the handler")
+    int values;
+}
@@ -0,0 +1,35 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The transform of one input into a whole message.
+ */
+@Name("com.yahoo.xpathproto.MessageTransform")
+@Label("Message Transform")
+@Description("The transform of one input into a message")
+@Category("XPath Proto Builder")
+@Enabled(false)
+@StackTrace(false)
+public final class MessageTransformEvent extends jdk.jfr.Event {
+
+    @Label("Definition")
+    String definition;
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Nodes")
+    @Description("The number of source nodes a definition was applied to, including the input")
+    int nodes;
+}
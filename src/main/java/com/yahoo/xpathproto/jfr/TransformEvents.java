@@ -0,0 +1,143 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.jfr;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Emits the Java Flight Recorder events of the transforms. The events are disabled by default and are turned on by the
+ * settings of a recording, for example with a .jfc file containing
+ *
+ * <pre>
+ * &lt;event name="com.yahoo.xpathproto.DefinitionTransform"&gt;
+ *   &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ *   &lt;setting name="threshold"&gt;1 ms&lt;/setting&gt;
+ * &lt;/event&gt;
+ * </pre>
+ *
+ * The begin methods return null unless their event is enabled in a running recording, so a transform only checks a
+ * flag per event when nothing is recorded. On a JVM without Flight Recorder no event class is loaded and the begin
+ * methods always return null.
+ */
+public final class TransformEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private TransformEvents() {
+    }
+
+    /**
+     * @return a started {@link MessageTransformEvent}, or null if the event is not recorded
+     */
+    public static Object beginMessage() {
+        return AVAILABLE ? Types.beginMessage() : null;
+    }
+
+    /**
+     * Commits an event returned by {@link #beginMessage()}, if it lasted longer than the threshold of the recording.
+     */
+    public static void endMessage(Object event, String definition, String messageType, int nodes) {
+        MessageTransformEvent message = (MessageTransformEvent) event;
+        message.end();
+        if (message.shouldCommit()) {
+            message.definition = definition;
+            message.messageType = messageType;
+            message.nodes = nodes;
+            message.commit();
+        }
+    }
+
+    /**
+     * @return a started {@link DefinitionTransformEvent}, or null if the event is not recorded
+     */
+    public static Object beginDefinition() {
+        return AVAILABLE ? Types.beginDefinition() : null;
+    }
+
+    /**
+     * Commits an event returned by {@link #beginDefinition()}, if it lasted longer than the threshold of the recording.
+     */
+    public static void endDefinition(Object event, String definition, String field, String path, int nodes) {
+        DefinitionTransformEvent transform = (DefinitionTransformEvent) event;
+        transform.end();
+        if (transform.shouldCommit()) {
+            transform.definition = definition;
+            transform.field = field;
+            transform.path = path;
+            transform.nodes = nodes;
+            transform.commit();
+        }
+    }
+
+    /**
+     * @return a started {@link HandlerInvocationEvent}, or null if the event is not recorded
+     */
+    public static Object beginHandler() {
+        return AVAILABLE ? Types.beginHandler() : null;
+    }
+
+    /**
+     * Commits an event returned by {@link #beginHandler()}, if it lasted longer than the threshold of the recording.
+     */
+    public static void endHandler(Object event, Class<?> handler, String field, String path, int values) {
+        HandlerInvocationEvent invocation = (HandlerInvocationEvent) event;
+        invocation.end();
+        if (invocation.shouldCommit()) {
+            invocation.handler = handler.getName();
+            invocation.field = field;
+            invocation.path = path;
+            invocation.values = values;
+            invocation.commit();
+        }
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, TransformEvents.class.getClassLoader());
+            return FlightRecorder.isAvailable();
+        } catch (final ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * The event types, only loaded once Flight Recorder is known to be there.
+     */
+    private static final class Types {
+
+        private static final EventType MESSAGE = EventType.getEventType(MessageTransformEvent.class);
+        private static final EventType DEFINITION = EventType.getEventType(DefinitionTransformEvent.class);
+        private static final EventType HANDLER = EventType.getEventType(HandlerInvocationEvent.class);
+
+        static Object beginMessage() {
+            if (!MESSAGE.isEnabled()) {
+                return null;
+            }
+            MessageTransformEvent event = new MessageTransformEvent();
+            event.begin();
+            return event;
+        }
+
+        static Object beginDefinition() {
+            if (!DEFINITION.isEnabled()) {
+                return null;
+            }
+            DefinitionTransformEvent event = new DefinitionTransformEvent();
+            event.begin();
+            return event;
+        }
+
+        static Object beginHandler() {
+            if (!HANDLER.isEnabled()) {
+                return null;
+            }
+            HandlerInvocationEvent event = new HandlerInvocationEvent();
+            event.begin();
+            return event;
+        }
+    }
+}
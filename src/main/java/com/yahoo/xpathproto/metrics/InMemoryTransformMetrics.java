@@ -0,0 +1,132 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps a {@link LatencyHistogram} per definition, per entry and per handler class in memory. The histograms are
+ * created the first time a name is recorded; after that, recording only looks the name up and adds to striped
+ * counters. The latencies can be read directly, or through JMX once the metrics are {@link #register(String)
+ * registered}.
+ */
+public class InMemoryTransformMetrics implements TransformMetrics, TransformMetricsMXBean {
+
+    private static final Function<Object, LatencyHistogram> NEW_HISTOGRAM = key -> new LatencyHistogram();
+
+    private final ConcurrentMap<String, LatencyHistogram> definitions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, LatencyHistogram> handlers = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops timing the transforms of the builders using these metrics. They are timed from creation on.
+     */
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void recordDefinition(String definition, long nanos) {
+        histogram(definitions, definition).record(nanos);
+    }
+
+    @Override
+    public void recordEntry(String definition, String entry, long nanos) {
+        ConcurrentMap<String, LatencyHistogram> byEntry = entries.get(definition);
+        if (byEntry == null) {
+            byEntry = entries.computeIfAbsent(definition, key -> new ConcurrentHashMap<>());
+        }
+        histogram(byEntry, entry).record(nanos);
+    }
+
+    @Override
+    public void recordHandler(Class<?> handler, long nanos) {
+        histogram(handlers, handler).record(nanos);
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getDefinitionLatencies() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> definition : definitions.entrySet()) {
+            snapshots.put(definition.getKey(), definition.getValue().snapshot());
+        }
+
+        return snapshots;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getEntryLatencies() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> definition : entries.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> entry : definition.getValue().entrySet()) {
+                snapshots.put(definition.getKey() + "/" + entry.getKey(), entry.getValue().snapshot());
+            }
+        }
+
+        return snapshots;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getHandlerLatencies() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<Class<?>, LatencyHistogram> handler : handlers.entrySet()) {
+            snapshots.put(handler.getKey().getName(), handler.getValue().snapshot());
+        }
+
+        return snapshots;
+    }
+
+    @Override
+    public void reset() {
+        definitions.clear();
+        entries.clear();
+        handlers.clear();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, as com.yahoo.xpathproto:type=TransformMetrics,name=...
+     *
+     * @param name - the name of the metrics, e.g. the name of the builder they are given to
+     * @return the name the metrics were registered under
+     */
+    public ObjectName register(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName =
+                new ObjectName("com.yahoo.xpathproto:type=TransformMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (final JMException e) {
+            throw new RuntimeException("Failed to register the transform metrics: " + name, e);
+        }
+    }
+
+    private static <K> LatencyHistogram histogram(ConcurrentMap<K, LatencyHistogram> histograms, K key) {
+        // get first: computeIfAbsent locks the bin of the key even when it is present
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(key, NEW_HISTOGRAM);
+        }
+
+        return histogram;
+    }
+}
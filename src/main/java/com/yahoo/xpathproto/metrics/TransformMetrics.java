@@ -0,0 +1,61 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.metrics;
+
+/**
+ * Receives the time spent transforming records, by definition, by entry and by handler class. An implementation is
+ * given to a {@link com.yahoo.xpathproto.ProtoBuilder} and is called from every thread using the builder, so it must
+ * be thread-safe and should not block.
+ * <p>
+ * Times are inclusive: the time of a definition covers its entries, and the time of an entry that maps a nested
+ * definition covers the entries of that definition. Entries are named by their target field, or by their path when
+ * they have no field.
+ */
+public interface TransformMetrics {
+
+    /**
+     * Records nothing. The builder checks {@link #isEnabled()} once per definition and does not read the clock, so
+     * transforms run as they would without metrics.
+     */
+    TransformMetrics NONE = new TransformMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void recordDefinition(String definition, long nanos) {
+        }
+
+        @Override
+        public void recordEntry(String definition, String entry, long nanos) {
+        }
+
+        @Override
+        public void recordHandler(Class<?> handler, long nanos) {
+        }
+    };
+
+    /**
+     * @return whether the builder should time the transforms. Nothing is recorded while this is false.
+     */
+    boolean isEnabled();
+
+    /**
+     * Records the time spent applying all the entries of a definition to one source node.
+     */
+    void recordDefinition(String definition, long nanos);
+
+    /**
+     * Records the time spent applying one entry of a definition.
+     */
+    void recordEntry(String definition, String entry, long nanos);
+
+    /**
+     * Records the time spent applying an entry resolved by a handler of the given class.
+     */
+    void recordHandler(Class<?> handler, long nanos);
+}
@@ -0,0 +1,38 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of an {@link InMemoryTransformMetrics}.
+ */
+public interface TransformMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return the latencies by definition name
+     */
+    Map<String, LatencySnapshot> getDefinitionLatencies();
+
+    /**
+     * @return the latencies by definition name and entry name, joined by a '/'
+     */
+    Map<String, LatencySnapshot> getEntryLatencies();
+
+    /**
+     * @return the latencies by handler class name
+     */
+    Map<String, LatencySnapshot> getHandlerLatencies();
+
+    /**
+     * Clears all the latencies recorded so far.
+     */
+    void reset();
+}
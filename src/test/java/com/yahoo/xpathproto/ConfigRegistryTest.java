@@ -0,0 +1,120 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ConfigRegistryTest {
+
+    private static final String URL_CONFIG = "{\"definitions\": {\"root_transform\": {"
+        + "\"proto\": \"com.yahoo.xpathproto.TransformTestProtos$ContentImage\", "
+        + "\"transforms\": [{\"field\": \"url\", \"path\": \"%s\"}]}}}";
+
+    @Test
+    public void testReloadOnFileChange() throws Exception {
+        File config = writeConfig(null, "url");
+        ConfigRegistry registry = new ConfigRegistry(ConfigRegistry.DEFAULT_MAXIMUM_WEIGHT, true);
+        try {
+            ProtoBuilder transformer = new ProtoBuilder(registry, config.getPath(), "root_transform", null,
+                ProtoBuilder.Engine.INTERPRETER);
+            Assert.assertEquals(getUrl(transformer), "url");
+
+            writeConfig(config, "other_url");
+            long deadline = System.currentTimeMillis() + 30000;
+            while (getUrl(transformer).equals("url") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(getUrl(transformer), "other_url");
+        } finally {
+            registry.close();
+            config.delete();
+        }
+    }
+
+    @Test
+    public void testFailedReloadKeepsConfig() throws Exception {
+        File config = writeConfig(null, "url");
+        ConfigRegistry registry = new ConfigRegistry(ConfigRegistry.DEFAULT_MAXIMUM_WEIGHT, false);
+        try {
+            CompiledConfig loaded = registry.get(config.getPath());
+
+            FileUtils.writeStringToFile(config, "{ not json", "UTF-8");
+            Assert.assertFalse(registry.reload(config.getPath()));
+            Assert.assertSame(registry.get(config.getPath()), loaded);
+
+            writeConfig(config, "other_url");
+            Assert.assertTrue(registry.reload(config.getPath()));
+            Assert.assertNotSame(registry.get(config.getPath()), loaded);
+            Assert.assertFalse(registry.reload("/testdata/not_loaded.json"));
+        } finally {
+            config.delete();
+        }
+    }
+
+    @Test
+    public void testConfigHeavierThanRegistry() throws Exception {
+        File config = writeConfig(null, "url");
+        ConfigRegistry registry = new ConfigRegistry(1, false);
+        try {
+            ProtoBuilder transformer = new ProtoBuilder(registry, config.getPath(), "root_transform", null,
+                ProtoBuilder.Engine.INTERPRETER);
+            getUrl(transformer);
+            Assert.fail("A config heavier than the registry cannot be held");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException, e.toString());
+            Assert.assertTrue(e.getCause().getMessage().contains("maximum weight"), e.getCause().getMessage());
+        }
+
+        try {
+            // a config as heavy as the registry is held
+            ConfigRegistry exact = new ConfigRegistry(2, false);
+            Assert.assertSame(exact.get(config.getPath()), exact.get(config.getPath()));
+            Assert.assertFalse(exact.getHandle(config.getPath()).isEvicted());
+        } finally {
+            config.delete();
+        }
+    }
+
+    @Test
+    public void testWeightEviction() throws Exception {
+        File first = writeConfig(null, "url");
+        File second = writeConfig(null, "other_url");
+        // each config weighs 2: one definition with one entry
+        ConfigRegistry registry = new ConfigRegistry(3, false);
+        try {
+            ProtoBuilder transformer = new ProtoBuilder(registry, first.getPath(), "root_transform", null,
+                ProtoBuilder.Engine.INTERPRETER);
+            Assert.assertEquals(getUrl(transformer), "url");
+            ConfigRegistry.Handle handle = registry.getHandle(first.getPath());
+
+            Assert.assertEquals(registry.get(second.getPath()).getWeight(), 2);
+            Assert.assertTrue(handle.isEvicted());
+            Assert.assertEquals(getUrl(transformer), "url");
+        } finally {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    private static String getUrl(ProtoBuilder transformer) {
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("url", "url");
+        data.put("other_url", "other_url");
+        return ((TransformTestProtos.ContentImage) transformer.build(data)).getUrl();
+    }
+
+    private static File writeConfig(File file, String path) throws Exception {
+        File config = (file == null) ? File.createTempFile("xpathproto", ".json") : file;
+        FileUtils.writeStringToFile(config, String.format(URL_CONFIG, path), "UTF-8");
+        return config;
+    }
+}
@@ -5,12 +5,15 @@ Copyrights licensed under the BSD License. See the accompanying LICENSE file for
 
 package com.yahoo.xpathproto;
 
+import org.apache.commons.jxpath.CompiledExpression;
 import org.apache.commons.jxpath.JXPathContext;
+import org.apache.commons.jxpath.Pointer;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
 import com.yahoo.xpathproto.JXPathCopier;
 import com.yahoo.xpathproto.ObjectToProtoHandler;
@@ -18,12 +21,32 @@ import com.yahoo.xpathproto.TransformTestProtos;
 import com.yahoo.xpathproto.dataobject.Config;
 import com.yahoo.xpathproto.dataobject.Context;
 
-public class ImageHandler implements ObjectToProtoHandler {
+public class ImageHandler implements ObjectToProtoHandler, CompilingHandler {
+
+    private final CompiledExpression path;
+
+    public ImageHandler() {
+        this(null);
+    }
+
+    private ImageHandler(CompiledExpression path) {
+        this.path = path;
+    }
+
+    CompiledExpression getPath() {
+        return path;
+    }
+
+    @Override
+    public CustomHandler compile(Config.Entry entry, Descriptors.FieldDescriptor field) {
+        return new ImageHandler(JXPathContext.compile(entry.getPath()));
+    }
 
     @Override
     public Message.Builder getProtoBuilder(JXPathContext context, Context vars, Config.Entry entry) {
         if (!entry.getPath().isEmpty()) {
-            context = JXPathCopier.getRelativeContext(context, entry.getPath());
+            context = (path == null) ? JXPathCopier.getRelativeContext(context, entry.getPath())
+                : JXPathCopier.getRelativeContext(context, path);
         }
 
         if (null == context) {
@@ -37,10 +60,10 @@ public class ImageHandler implements ObjectToProtoHandler {
     public List<Message.Builder> getRepeatedProtoBuilder(JXPathContext context, Context vars, Config.Entry entry) {
         List<Message.Builder> builders = new ArrayList();
 
-        Iterator iterator = context.iterate(entry.getPath());
-        while (iterator.hasNext()) {
-            Object value = iterator.next();
-            builders.add(copyObjectToImageAsset(JXPathContext.newContext(value)));
+        // relative to the pointers rather than the values, which for a DOM node is its text
+        Iterator pointers = (path == null) ? context.iteratePointers(entry.getPath()) : path.iteratePointers(context);
+        while (pointers.hasNext()) {
+            builders.add(copyObjectToImageAsset(context.getRelativeContext((Pointer) pointers.next())));
         }
 
         return builders;
@@ -6,20 +6,68 @@ Copyrights licensed under the BSD License. See the accompanying LICENSE file for
 package com.yahoo.xpathproto;
 
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.apache.commons.io.IOUtils;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
 
 import com.yahoo.xpathproto.TransformTestProtos.MessageEnum;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.UninitializedMessageException;
+import com.yahoo.xpathproto.dataobject.Config;
+import com.yahoo.xpathproto.dataobject.Context;
+import com.yahoo.xpathproto.handler.Rfc1123TimestampHandler;
 import com.yahoo.xpathproto.handler.RfcTimestampHandler;
+import com.yahoo.xpathproto.metrics.InMemoryTransformMetrics;
+import com.yahoo.xpathproto.metrics.LatencyHistogram;
+import com.yahoo.xpathproto.metrics.LatencySnapshot;
 
 public class ObjectTransformerTest {
 
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Context sharedContext = new Context();
+    private static final ProtoBuilder sharedTransformer =
+        new ProtoBuilder("/testdata/transformerconfig.json", "test_transform", sharedContext);
 
     @Test
     public void testJson() throws Exception {
@@ -87,6 +135,469 @@ public class ObjectTransformerTest {
         Assert.assertEquals(builder.getStrValuesList(), expectedStrValues);
     }
 
+    @Test(threadPoolSize = 8, invocationCount = 64)
+    public void testSharedBuilderAcrossThreads() throws Exception {
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+        String src = "src-" + Thread.currentThread().getId();
+        tdata.put("_src", src);
+
+        TransformTestProtos.TransformedMessage message =
+            (TransformTestProtos.TransformedMessage) sharedTransformer.build(tdata);
+
+        Assert.assertEquals(message.getSrc(), src);
+        Assert.assertEquals(message.getVarSrc(), src);
+        Assert.assertEquals(message.getImagesByTransformCount(), 2);
+        Assert.assertNull(sharedContext.getValue("var_src"));
+    }
+
+    @Test
+    public void testBuildAll() throws Exception {
+        List<Object> inputs = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+            Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+            tdata.put("_src", "src-" + i);
+            inputs.add(tdata);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Message> ordered = sharedTransformer.buildAll(inputs, pool);
+            Assert.assertEquals(ordered.size(), inputs.size());
+            for (int i = 0; i < ordered.size(); i++) {
+                Assert.assertEquals(((TransformTestProtos.TransformedMessage) ordered.get(i)).getSrc(), "src-" + i);
+            }
+
+            List<Message> unordered = sharedTransformer.buildAll(inputs, pool, ProtoBuilder.BatchOrder.UNORDERED);
+            Set<String> sources = new HashSet<String>();
+            for (Message message : unordered) {
+                sources.add(((TransformTestProtos.TransformedMessage) message).getSrc());
+            }
+            Assert.assertEquals(sources.size(), inputs.size());
+
+            Assert.assertTrue(sharedTransformer.buildAll(new ArrayList<Object>(), pool).isEmpty());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = UninitializedMessageException.class)
+    public void testBuildAllFailure() throws Exception {
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+        Map<String, Object> incomplete = new HashMap<String, Object>(tdata);
+        incomplete.remove("_src");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            sharedTransformer.buildAll(Arrays.asList(tdata, incomplete, tdata), executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMethodHandleEngine() throws Exception {
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+
+        TransformTestProtos.TransformedMessage interpreted = (TransformTestProtos.TransformedMessage)
+            new ProtoBuilder("/testdata/transformerconfig.json", "test_transform").build(tdata);
+        TransformTestProtos.TransformedMessage bound = (TransformTestProtos.TransformedMessage)
+            new ProtoBuilder("/testdata/transformerconfig.json", "test_transform", null,
+                ProtoBuilder.Engine.METHOD_HANDLES).build(tdata);
+
+        Assert.assertEquals(bound.toBuilder().setTsUpdate(interpreted.getTsUpdate()).build(), interpreted);
+        Assert.assertEquals(bound.getEnumValue(), MessageEnum.FIRST);
+        Assert.assertEquals(FieldSetter.toCamelCase("images_by_transform"), "ImagesByTransform");
+        Assert.assertEquals(FieldSetter.toCamelCase("field1_a2b"), "Field1A2B");
+    }
+
+    @Test
+    public void testWireFormat() throws Exception {
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+
+        TransformTestProtos.TransformedMessage built =
+            (TransformTestProtos.TransformedMessage) sharedTransformer.build(tdata);
+        TransformTestProtos.TransformedMessage parsed =
+            TransformTestProtos.TransformedMessage.parseFrom(sharedTransformer.toByteArray(tdata));
+
+        Assert.assertEquals(parsed.toBuilder().setTsUpdate(built.getTsUpdate()).build(), built);
+        Assert.assertEquals(parsed.getImagesByTransformCount(), 2);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        sharedTransformer.writeTo(tdata, output);
+        output.flush();
+        Assert.assertEquals(TransformTestProtos.TransformedMessage.parseFrom(bytes.toByteArray()).getSrc(), "src");
+    }
+
+    @Test(expectedExceptions = UninitializedMessageException.class)
+    public void testWireFormatRequiresRequiredFields() throws Exception {
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+        tdata.remove("_src");
+
+        sharedTransformer.toByteArray(tdata);
+    }
+
+    @Test
+    public void testBulkAdder() {
+        Descriptors.Descriptor descriptor = TransformTestProtos.TransformedMessage.getDescriptor();
+        FieldSetter.BulkAdder strValues = FieldSetter.bindAddAll(descriptor.findFieldByName("str_values"),
+            TransformTestProtos.TransformedMessage.Builder.class);
+        FieldSetter.BulkAdder images = FieldSetter.bindAddAll(descriptor.findFieldByName("images_by_transform"),
+            TransformTestProtos.TransformedMessage.Builder.class);
+        Assert.assertNull(FieldSetter.bindAddAll(descriptor.findFieldByName("src"),
+            TransformTestProtos.TransformedMessage.Builder.class));
+
+        TransformTestProtos.TransformedMessage.Builder builder = TransformTestProtos.TransformedMessage.newBuilder();
+        Assert.assertTrue(strValues.addAll(builder, Arrays.asList("v1", "v2")));
+        Assert.assertFalse(strValues.addAll(builder, Arrays.asList("v3", 4)));
+        Assert.assertEquals(builder.getStrValuesList(), Arrays.asList("v1", "v2"));
+
+        TransformTestProtos.ContentImage image = TransformTestProtos.ContentImage.newBuilder().setUrl("u").build();
+        Assert.assertTrue(images.addAll(builder, Arrays.asList(image, image)));
+        Assert.assertEquals(builder.getImagesByTransformCount(), 2);
+    }
+
+    @Test
+    public void testStreamingJson() throws Exception {
+        byte[] json = IOUtils.toByteArray(ObjectTransformerTest.class.getResourceAsStream(
+            "/testdata/transformerdata.json"));
+        Map<String, Object> tdata = mapper.readValue(json, Map.class);
+
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        ProtoBuilder transformer = new ProtoBuilder(config, "test_transform", null, ProtoBuilder.Engine.INTERPRETER);
+
+        TransformTestProtos.TransformedMessage expected =
+            (TransformTestProtos.TransformedMessage) transformer.build(tdata);
+        TransformTestProtos.TransformedMessage streamed =
+            (TransformTestProtos.TransformedMessage) transformer.builderFromJson(json).build();
+
+        Assert.assertEquals(streamed.toBuilder().setTsUpdate(expected.getTsUpdate()).build(), expected);
+    }
+
+    @Test
+    public void testJsonSelectionSkipsUnreferencedMembers() throws Exception {
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        String json = "{\"unused\": {\"a\": [1, 2, 3]}, \"image\": {\"url\": \"u\", \"size\": 10}, "
+            + "\"images\": [{\"url\": \"u\", \"width\": 1}, {\"type\": \"t\"}]}";
+
+        JsonParser parser = mapper.getFactory().createParser(json);
+        parser.nextToken();
+        Object pruned = config.getDefinition("nested_transform").getJsonSelection().read(parser, mapper);
+
+        Assert.assertEquals(pruned, mapper.readValue("{\"image\": {\"url\": \"u\"}, "
+            + "\"images\": [{\"url\": \"u\", \"width\": 1}, {\"type\": \"t\"}]}", Map.class));
+    }
+
+    @Test
+    public void testJsonSelectionKeepsNodesReadByHandlers() throws Exception {
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        String json = "{\"_src\": \"src\", \"unused\": {\"a\": [1, 2, 3]}, \"select\": {\"nested\": \"n\"}}";
+
+        JsonParser parser = mapper.getFactory().createParser(json);
+        parser.nextToken();
+        Object pruned = config.getDefinition("test_transform").getJsonSelection().read(parser, mapper);
+
+        // handlers are given the whole node their entry is evaluated on
+        Assert.assertEquals(pruned, mapper.readValue(json, Map.class));
+    }
+
+    @Test
+    public void testJsonSelectionReadsDocumentForNestedAbsolutePaths() throws Exception {
+        Config.Entry url = new Config.Entry();
+        url.setField("string_value");
+        url.setPath("concat(image/url, '/', image/type, ' = /x')");
+        Config.Entry count = new Config.Entry();
+        count.setField("int_value");
+        count.setPath("string(count(/images))");
+        Config.Definition definition = new Config.Definition();
+        definition.setProto(TransformTestProtos.TransformedMessage.class.getName());
+        definition.setTransforms(Collections.singletonList(url));
+        Config source = new Config();
+        source.definitions = Collections.singletonMap("count_transform", definition);
+
+        // slashes inside literals are not paths
+        Assert.assertNotNull(CompiledConfig.compile(source).getDefinition("count_transform").getJsonSelection());
+
+        definition.setTransforms(Arrays.asList(url, count));
+        CompiledConfig config = CompiledConfig.compile(source);
+        Assert.assertNull(config.getDefinition("count_transform").getJsonSelection());
+
+        byte[] json = "{\"images\": [{\"url\": \"a\"}, {\"url\": \"b\"}], \"image\": {\"url\": \"u\"}}"
+            .getBytes("UTF-8");
+        ProtoBuilder transformer = new ProtoBuilder(config, "count_transform", null, ProtoBuilder.Engine.INTERPRETER);
+        TransformTestProtos.TransformedMessage streamed =
+            (TransformTestProtos.TransformedMessage) transformer.builderFromJson(json).buildPartial();
+
+        Assert.assertEquals(streamed.getIntValue(), 2);
+        Assert.assertEquals(streamed, transformer.builder(mapper.readValue(json, Map.class)).buildPartial());
+    }
+
+    @Test
+    public void testCompiledConfig() throws Exception {
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        CompiledConfig.Definition definition = config.getDefinition("test_transform");
+
+        Assert.assertEquals(definition.getDescriptor(), TransformTestProtos.TransformedMessage.getDescriptor());
+        Assert.assertEquals(definition.getEntries().size(), 19);
+
+        CompiledConfig.Entry varSrc = definition.getEntries().get(2);
+        Assert.assertEquals(varSrc.getKind(), CompiledConfig.Kind.VARIABLE);
+        Assert.assertEquals(varSrc.getVariableName(), "var_src");
+        Assert.assertEquals(varSrc.getField().getNumber(), 2);
+
+        CompiledConfig.Entry images = definition.getEntries().get(16);
+        Assert.assertEquals(images.getKind(), CompiledConfig.Kind.DEFINITION);
+        Assert.assertTrue(images.isRepeated());
+        Assert.assertEquals(images.getDefinition().getDescriptor(), TransformTestProtos.ContentImage.getDescriptor());
+
+        // compiling handlers give an instance of their own to every entry
+        ImageHandler imageByHandler = (ImageHandler) definition.getEntries().get(17).getHandler();
+        ImageHandler imagesByHandler = (ImageHandler) definition.getEntries().get(18).getHandler();
+        Assert.assertNotSame(imageByHandler, imagesByHandler);
+        Assert.assertEquals(imageByHandler.getPath().toString(), "image");
+
+        // definitions without a proto are compiled against the message type of their caller
+        CompiledConfig.Entry select = definition.getEntries().get(11);
+        Assert.assertNull(select.getDefinition().getPrototype());
+        Assert.assertEquals(select.getDefinition().getDescriptor(), definition.getDescriptor());
+    }
+
+    @Test
+    public void testVariableSlots() throws Exception {
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        CompiledConfig.Definition definition = config.getDefinition("test_transform");
+        CompiledConfig.Entry varSrc = definition.getEntries().get(2);
+        Assert.assertEquals(varSrc.getVariableSlot(), definition.getEntries().get(1).getAssignedSlot());
+
+        Context seed = new Context();
+        seed.setValue("var_src", "seeded");
+        seed.setValue("handler_only", "value");
+        SlotContext vars = new SlotContext(definition.getVariableSlots(), seed);
+
+        Assert.assertEquals(vars.getSlot(varSrc.getVariableSlot()), "seeded");
+        Assert.assertEquals(vars.getValue("handler_only"), "value");
+        vars.setValue("var_src", "assigned");
+        vars.setValue("handler_only", "changed");
+        Assert.assertEquals(vars.getSlot(varSrc.getVariableSlot()), "assigned");
+        Assert.assertEquals(vars.getValue("handler_only"), "changed");
+        Assert.assertEquals(seed.getValue("var_src"), "seeded");
+        Assert.assertEquals(seed.getValue("handler_only"), "value");
+    }
+
+    @Test
+    public void testLimitStopsIteration() throws Exception {
+        final int[] reads = new int[1];
+        List<Object> strValues = new AbstractList<Object>() {
+            @Override
+            public Object get(int index) {
+                reads[0]++;
+                return "v" + index;
+            }
+
+            @Override
+            public int size() {
+                return 10000;
+            }
+        };
+        List<Object> images = new AbstractList<Object>() {
+            @Override
+            public Object get(int index) {
+                reads[0]++;
+                return Collections.singletonMap("url", "image" + index);
+            }
+
+            @Override
+            public int size() {
+                return 10000;
+            }
+        };
+        Map<String, Object> tdata = new HashMap<String, Object>();
+        tdata.put("str_values", strValues);
+        tdata.put("images", images);
+
+        TransformTestProtos.TransformedMessage.Builder builder = (TransformTestProtos.TransformedMessage.Builder)
+            new ProtoBuilder("/testdata/transformerconfig.json", "limit_transform").builder(tdata);
+
+        Assert.assertEquals(builder.getStrValuesList(), Arrays.asList("v0", "v1"));
+        Assert.assertEquals(builder.getImagesByTransformCount(), 3);
+        Assert.assertEquals(builder.getImagesByTransform(2).getUrl(), "image2");
+        Assert.assertTrue(reads[0] < 100, "elements read: " + reads[0]);
+    }
+
+    @Test
+    public void testNestedMessages() throws Exception {
+        Map<String, Object> tdata = mapper.readValue("{\"image\": {\"url\": \"foo\", \"height\": 100}, "
+            + "\"image_without_url\": {\"height\": 50}, \"small_image\": {\"url\": \"small\"}, "
+            + "\"images\": [{\"url\": \"image1\"}, {\"height\": 10}, {\"url\": \"image3\"}]}", Map.class);
+
+        for (ProtoBuilder.Engine engine : ProtoBuilder.Engine.values()) {
+            TransformTestProtos.TransformedMessage.Builder builder = (TransformTestProtos.TransformedMessage.Builder)
+                new ProtoBuilder("/testdata/transformerconfig.json", "nested_transform", null, engine).builder(tdata);
+
+            // a nested message without its required fields leaves the previous value in place
+            Assert.assertEquals(builder.getImageByTransform().getUrl(), "foo");
+            Assert.assertEquals(builder.getImageByTransform().getHeight(), 100);
+            // a nested message replaces the previous value rather than merging into it
+            Assert.assertEquals(builder.getImageByHandler().getUrl(), "small");
+            Assert.assertFalse(builder.getImageByHandler().hasHeight());
+            Assert.assertEquals(builder.getImagesByTransformCount(), 2);
+            Assert.assertEquals(builder.getImagesByTransform(1).getUrl(), "image3");
+        }
+    }
+
+    @Test
+    public void testScalarCoercion() {
+        Integer integer = 100;
+        Assert.assertSame(ScalarCoercer.INT.coerce(integer), integer);
+        Assert.assertEquals(ScalarCoercer.INT.coerce(100L), 100);
+        Assert.assertNull(ScalarCoercer.INT.coerce(10000000000L));
+        Assert.assertNull(ScalarCoercer.INT.coerce(1.5));
+        Assert.assertEquals(ScalarCoercer.INT.coerce("-7"), -7);
+        Assert.assertNull(ScalarCoercer.INT.coerce("abc"));
+        Assert.assertEquals(ScalarCoercer.LONG.coerce(100), 100L);
+        Assert.assertEquals(ScalarCoercer.FLOAT.coerce(1.1), 1.1f);
+        Assert.assertEquals(ScalarCoercer.DOUBLE.coerce(1.1f), 1.1);
+        Assert.assertEquals(ScalarCoercer.DOUBLE.coerce(3), 3.0);
+        Assert.assertEquals(ScalarCoercer.BOOLEAN.coerce("true"), Boolean.TRUE);
+        Assert.assertEquals(ScalarCoercer.STRING.coerce(5), "5");
+        Assert.assertNull(ScalarCoercer.STRING.coerceNullable(null));
+
+        Descriptors.FieldDescriptor enumField =
+            TransformTestProtos.TransformedMessage.getDescriptor().findFieldByName("enum_value");
+        Assert.assertEquals(ScalarCoercer.forField(enumField).coerce("FIRST"), MessageEnum.FIRST.getValueDescriptor());
+    }
+
+    @Test
+    public void testScalarParserMatchesJdk() {
+        String[] samples = {"", " ", "+", "-", "0", "-0", "+12", "007", "2147483647", "2147483648", "-2147483648",
+            "-2147483649", "9223372036854775807", "9223372036854775808", "-9223372036854775808", "\u0661\u0662",
+            " 1", "1 ", "1.", ".5", ".", "1e5", "1e", "1e+", "1E-3f", "1.5d", "1.5dd", "NaN", "-Infinity", "NaNf",
+            "0x1p3", "0x1.8P-2f", "0x.8p1", "0x1", "0xp1", "0x1.p1", "1_0", "true", "TRUE", "False", "yes"};
+        for (String sample : samples) {
+            checkParsers(sample);
+        }
+
+        Random random = new Random(42);
+        String alphabet = "0123456789+-.eExXpPfFdDaIN \t";
+        for (int i = 0; i < 100000; i++) {
+            char[] chars = new char[1 + random.nextInt(8)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            checkParsers(new String(chars));
+        }
+    }
+
+    private static void checkParsers(String s) {
+        Object expected;
+        try {
+            expected = Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            expected = null;
+        }
+        Assert.assertEquals(ScalarParser.parseInt(s), expected, s);
+
+        try {
+            expected = Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            expected = null;
+        }
+        Assert.assertEquals(ScalarParser.parseLong(s), expected, s);
+
+        try {
+            expected = Float.parseFloat(s);
+        } catch (NumberFormatException e) {
+            expected = null;
+        }
+        Assert.assertEquals(ScalarParser.parseFloat(s), expected, s);
+
+        try {
+            expected = Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            expected = null;
+        }
+        Assert.assertEquals(ScalarParser.parseDouble(s), expected, s);
+
+        expected = s.equalsIgnoreCase("true") || s.equalsIgnoreCase("false") ? Boolean.parseBoolean(s) : null;
+        Assert.assertEquals(ScalarParser.parseBoolean(s), expected, s);
+    }
+
+    @Test
+    public void testRejectedCount() throws Exception {
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+        tdata.put("int_value", "abc");
+        tdata.put("long_value", "1000");
+
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        ProtoBuilder transformer = new ProtoBuilder(config, "test_transform", null, ProtoBuilder.Engine.INTERPRETER);
+        TransformTestProtos.TransformedMessage.Builder builder =
+            (TransformTestProtos.TransformedMessage.Builder) transformer.builder(tdata);
+        transformer.builder(tdata);
+
+        Assert.assertFalse(builder.hasIntValue());
+        Assert.assertEquals(builder.getLongValue(), 1000L);
+        List<CompiledConfig.Entry> entries = config.getDefinition("test_transform").getEntries();
+        Assert.assertEquals(entries.get(6).getField().getName(), "int_value");
+        Assert.assertEquals(entries.get(6).getRejectedCount(), 2);
+        Assert.assertEquals(entries.get(7).getRejectedCount(), 0);
+    }
+
+    @Test
+    public void testEnumLookup() throws Exception {
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        ProtoBuilder transformer = new ProtoBuilder(config, "enum_transform", null, ProtoBuilder.Engine.INTERPRETER);
+
+        Object[][] cases = {{"FIRST", MessageEnum.FIRST}, {"third", MessageEnum.THIRD}, {"1st", MessageEnum.FIRST},
+            {"TWO", MessageEnum.SECOND}, {"3", MessageEnum.THIRD}, {2, MessageEnum.SECOND}, {"4", null},
+            {"fourth", null}, {"", null}, {"-", null}};
+        for (Object[] example : cases) {
+            Map<String, Object> tdata = new HashMap<String, Object>();
+            tdata.put("enum_value", example[0]);
+            TransformTestProtos.TransformedMessage.Builder builder =
+                (TransformTestProtos.TransformedMessage.Builder) transformer.builder(tdata);
+            Assert.assertEquals(builder.hasEnumValue() ? builder.getEnumValue() : null, example[1], "" + example[0]);
+        }
+        Assert.assertEquals(config.getDefinition("enum_transform").getEntries().get(0).getRejectedCount(), 4);
+
+        Descriptors.EnumDescriptor type = MessageEnum.getDescriptor();
+        Assert.assertSame(EnumLookup.of(type), EnumLookup.of(type, null));
+        Assert.assertEquals(EnumLookup.of(type).find("Second"), MessageEnum.SECOND.getValueDescriptor());
+        Assert.assertNull(EnumLookup.of(type).find("1st"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testEnumAliasClash() {
+        EnumLookup.of(MessageEnum.getDescriptor(), Collections.singletonMap("first", "SECOND"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAliasesRequireEnumField() {
+        Config.Entry entry = new Config.Entry();
+        entry.setField("string_value");
+        entry.setPath("string_value");
+        entry.setAliases(Collections.singletonMap("a", "b"));
+        Config.Definition definition = new Config.Definition();
+        definition.setProto(TransformTestProtos.TransformedMessage.class.getName());
+        definition.setTransforms(Collections.singletonList(entry));
+        Config config = new Config();
+        config.definitions = Collections.singletonMap("aliases_transform", definition);
+
+        CompiledConfig.compile(config);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCompiledConfigRequiresProtoAtTopLevel() throws Exception {
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        config.getDefinition("select_transform");
+    }
+
     @Test
     public void testRfcTimestamp() {
 
@@ -97,6 +608,355 @@ public class ObjectTransformerTest {
         Assert.assertEquals(ts, new Long(1388121201));
     }
 
+    @Test
+    public void testRfcTimestampMatchesJoda() {
+        RfcTimestampHandler handler = new RfcTimestampHandler();
+        DateTimeFormatter formatter = ISODateTimeFormat.dateTimeNoMillis();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            String date = String.format("%04d-%02d-%02dT%02d:%02d:%02d%s", random.nextInt(3000), 1 + random.nextInt(12),
+                1 + random.nextInt(31), random.nextInt(25), random.nextInt(60), random.nextInt(61),
+                random.nextBoolean() ? "Z" : String.format("%s%02d:%02d", random.nextBoolean() ? "+" : "-",
+                    random.nextInt(24), random.nextInt(60)));
+            Object expected;
+            try {
+                expected = formatter.parseDateTime(date).getMillis() / 1000;
+            } catch (IllegalArgumentException e) {
+                expected = null;
+            }
+            Assert.assertEquals(handler.parseDate(date), expected, date);
+            Assert.assertEquals(handler.parseDate(date), expected, date);
+        }
+
+        Assert.assertEquals(handler.parseDate("2014-01-17t14:11:35z"), 1389967895L);
+        Assert.assertEquals(handler.parseDate("2014-01-17T16:11:35+0200"), 1389967895L);
+    }
+
+    @Test
+    public void testRfcTimestampFailureCount() {
+        RfcTimestampHandler handler = new RfcTimestampHandler();
+        Assert.assertNull(handler.parseDate("2014-02-30T00:00:00Z"));
+        Assert.assertNull(handler.parseDate("abc"));
+        Assert.assertNull(handler.parseDate("abc"));
+        Assert.assertEquals(handler.getFailureCount(), 3);
+    }
+
+    @Test
+    public void testRfc1123Timestamp() {
+        Rfc1123TimestampHandler handler = new Rfc1123TimestampHandler();
+        Assert.assertEquals(handler.parseDate("Tue, 07 May 2013 00:00:00 +0000"), 1367884800L);
+        Assert.assertEquals(handler.parseDate("7 may 13 02:00 +02:00"), 1367884800L);
+        Assert.assertEquals(handler.parseDate("Mon, 06 May 2013 20:00:00 EDT "), 1367884800L);
+        Assert.assertEquals(handler.parseDate("Tue,07 May 2013 00:00:00 GMT"), 1367884800L);
+        String[] invalid = {"", "Tue, 07 May 2013", "Tue, 07 Mai 2013 00:00:00 GMT", "Tue, 31 Apr 2013 00:00:00 GMT",
+            "Tue, 07 May 2013 24:00:00 GMT", "Tue, 07 May 2013 00:00:00 XYZ", "Tue, 07 May 2013 00:00:00 +000",
+            "Tue 07 May 2013 00:00:00 GMT", "Tue, 07 May 201 00:00:00 GMT", "2013-05-07T00:00:00Z"};
+        for (String date : invalid) {
+            Assert.assertNull(handler.parseDate(date), date);
+        }
+        Assert.assertEquals(handler.getFailureCount(), invalid.length);
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.US);
+        Random random = new Random(11);
+        for (int i = 0; i < 20000; i++) {
+            long seconds = random.nextInt(Integer.MAX_VALUE) + 1000000000L;
+            format.setTimeZone(TimeZone.getTimeZone(TimeZone.getAvailableIDs()[random.nextInt(
+                TimeZone.getAvailableIDs().length)]));
+            String date = format.format(new Date(seconds * 1000));
+            Assert.assertEquals(handler.parseDate(date), seconds, date);
+        }
+    }
+
+    @Test
+    public void testTransformMetrics() throws Exception {
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+
+        InMemoryTransformMetrics metrics = new InMemoryTransformMetrics();
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        ProtoBuilder transformer =
+            new ProtoBuilder(config, "test_transform", null, ProtoBuilder.Engine.INTERPRETER, metrics);
+        transformer.build(tdata);
+        transformer.build(tdata);
+
+        Map<String, LatencySnapshot> definitions = metrics.getDefinitionLatencies();
+        Assert.assertEquals(definitions.keySet(),
+            new HashSet<String>(Arrays.asList("test_transform", "select_transform", "image_transform")));
+        Assert.assertEquals(definitions.get("test_transform").getCount(), 2);
+        // image_transform maps image twice and each of the two images
+        Assert.assertEquals(definitions.get("image_transform").getCount(), 8);
+
+        Map<String, LatencySnapshot> entries = metrics.getEntryLatencies();
+        Assert.assertEquals(entries.get("test_transform/src").getCount(), 2);
+        Assert.assertEquals(entries.get("test_transform/string('var_value')").getCount(), 2);
+        Assert.assertEquals(entries.get("test_transform/image_by_transform").getCount(), 4);
+        Assert.assertEquals(entries.get("image_transform/url").getCount(), 8);
+        LatencySnapshot test = definitions.get("test_transform");
+        Assert.assertTrue(test.getTotalNanos() >= entries.get("test_transform/images_by_transform").getTotalNanos());
+
+        Map<String, LatencySnapshot> handlers = metrics.getHandlerLatencies();
+        Assert.assertEquals(handlers.get(ImageHandler.class.getName()).getCount(), 4);
+        Assert.assertEquals(handlers.get("com.yahoo.xpathproto.handler.TimeStampHandler").getCount(), 2);
+
+        metrics.setEnabled(false);
+        transformer.build(tdata);
+        Assert.assertEquals(metrics.getDefinitionLatencies().get("test_transform").getCount(), 2);
+        metrics.reset();
+        Assert.assertTrue(metrics.getEntryLatencies().isEmpty());
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.snapshot().getCount(), 0);
+        Assert.assertEquals(histogram.snapshot().getP99Nanos(), 0);
+
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        LatencySnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(snapshot.getCount(), 1002);
+        Assert.assertEquals(snapshot.getMaxNanos(), Long.MAX_VALUE);
+        Assert.assertTrue(snapshot.getP50Nanos() >= 500000 && snapshot.getP50Nanos() <= 500000 * 1.25,
+            snapshot.toString());
+        Assert.assertTrue(snapshot.getP90Nanos() >= 900000 && snapshot.getP90Nanos() <= 900000 * 1.25,
+            snapshot.toString());
+        Assert.assertTrue(snapshot.getP99Nanos() >= 990000 && snapshot.getP99Nanos() <= 990000 * 1.25,
+            snapshot.toString());
+
+        histogram.reset();
+        Assert.assertEquals(histogram.snapshot().getCount(), 0);
+    }
+
+    @Test
+    public void testTransformMetricsMXBean() throws Exception {
+        InMemoryTransformMetrics metrics = new InMemoryTransformMetrics();
+        metrics.recordDefinition("test_transform", 1000);
+        ObjectName name = metrics.register("ObjectTransformerTest");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            TabularData definitions = (TabularData) server.getAttribute(name, "DefinitionLatencies");
+            CompositeData row = definitions.get(new Object[] {"test_transform"});
+            Assert.assertEquals(((CompositeData) row.get("value")).get("count"), 1L);
+            Assert.assertEquals(((CompositeData) row.get("value")).get("maxNanos"), 1000L);
+            Assert.assertEquals(server.getAttribute(name, "Enabled"), true);
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        if (!FlightRecorder.isAvailable()) {
+            throw new SkipException("Flight Recorder is not available in this JVM");
+        }
+
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+        ProtoBuilder transformer = new ProtoBuilder("/testdata/transformerconfig.json", "test_transform");
+        transformer.build(tdata);
+
+        List<RecordedEvent> events;
+        File file = File.createTempFile("transform", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.yahoo.xpathproto.MessageTransform");
+            recording.enable("com.yahoo.xpathproto.DefinitionTransform");
+            recording.enable("com.yahoo.xpathproto.HandlerInvocation");
+            recording.start();
+            transformer.build(tdata);
+            recording.stop();
+            recording.dump(file.toPath());
+            events = RecordingFile.readAllEvents(file.toPath());
+        } finally {
+            file.delete();
+        }
+
+        Map<String, List<RecordedEvent>> byName = new HashMap<String, List<RecordedEvent>>();
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getName();
+            if (!byName.containsKey(name)) {
+                byName.put(name, new ArrayList<RecordedEvent>());
+            }
+            byName.get(name).add(event);
+        }
+
+        RecordedEvent message = byName.get("com.yahoo.xpathproto.MessageTransform").get(0);
+        Assert.assertEquals(byName.get("com.yahoo.xpathproto.MessageTransform").size(), 1);
+        Assert.assertEquals(message.getString("definition"), "test_transform");
+        Assert.assertEquals(message.getString("messageType"), "proto.transform_test.TransformedMessage");
+        // the input, select, image twice and the two images
+        Assert.assertEquals(message.getInt("nodes"), 6);
+
+        Map<String, Integer> nodesByField = new HashMap<String, Integer>();
+        for (RecordedEvent event : byName.get("com.yahoo.xpathproto.DefinitionTransform")) {
+            nodesByField.put(event.getString("path") + "/" + event.getString("field"), event.getInt("nodes"));
+        }
+        Assert.assertEquals(nodesByField.get("select/null"), Integer.valueOf(1));
+        Assert.assertEquals(nodesByField.get("images/images_by_transform"), Integer.valueOf(2));
+
+        Map<String, Integer> valuesByField = new HashMap<String, Integer>();
+        for (RecordedEvent event : byName.get("com.yahoo.xpathproto.HandlerInvocation")) {
+            valuesByField.put(event.getString("field"), event.getInt("values"));
+            Assert.assertNotNull(event.getString("handler"));
+        }
+        Assert.assertEquals(valuesByField.get("images_by_handler"), Integer.valueOf(2));
+        Assert.assertEquals(valuesByField.get("image_by_handler"), Integer.valueOf(1));
+        Assert.assertEquals(valuesByField.get("ts_update"), Integer.valueOf(1));
+    }
+
+    @Test
+    public void testExplain() throws Exception {
+        InputStream tdatastream = ObjectTransformerTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+        tdata.remove("image");
+
+        ProtoBuilder transformer = new ProtoBuilder("/testdata/transformerconfig.json", "test_transform");
+        Explanation explanation = transformer.explain(tdata);
+        TransformTestProtos.TransformedMessage.Builder builder =
+            (TransformTestProtos.TransformedMessage.Builder) explanation.getBuilder();
+        Assert.assertEquals(builder.getSrc(), "src");
+        Assert.assertEquals(builder.getImagesByTransformCount(), 2);
+
+        Map<String, Explanation.EntryReport> reports = new HashMap<String, Explanation.EntryReport>();
+        for (Explanation.EntryReport report : explanation.getEntries()) {
+            // image_by_transform is mapped twice, the same way
+            reports.put(report.getDefinition() + "/" + report.getPath() + "/" + report.getField(), report);
+        }
+        Assert.assertEquals(explanation.getEntries().size(), 24);
+
+        Explanation.EntryReport variable = reports.get("test_transform/string('var_value')/null");
+        Assert.assertEquals(variable.getEngine(), Explanation.PathEngine.JXPATH);
+        Assert.assertEquals(variable.getNodes(), 1);
+        Assert.assertEquals(variable.getValues(), 0);
+
+        Explanation.EntryReport src = reports.get("test_transform/_src/src");
+        Assert.assertEquals(src.getEngine(), Explanation.PathEngine.FAST_PATH);
+        Assert.assertEquals(src.getInvocations(), 1);
+        Assert.assertEquals(src.getValues(), 1);
+        Assert.assertEquals(reports.get("test_transform/$var_src/var_src").getValues(), 1);
+        Assert.assertEquals(reports.get("test_transform/str_values/str_values").getNodes(), 2);
+
+        Explanation.EntryReport image = reports.get("test_transform/image/image_by_transform");
+        Assert.assertTrue(image.isEmpty());
+        Assert.assertEquals(image.getValues(), 0);
+        Assert.assertTrue(reports.get("test_transform/image/image_by_handler").isEmpty());
+
+        Explanation.EntryReport images = reports.get("test_transform/images/images_by_transform");
+        Assert.assertFalse(images.isEmpty());
+        Assert.assertEquals(images.getValues(), 2);
+        Assert.assertTrue(images.getElapsedNanos() >= reports.get("image_transform/url/url").getElapsedNanos());
+        Assert.assertEquals(reports.get("image_transform/url/url").getInvocations(), 2);
+        Assert.assertEquals(reports.get("image_transform/height/height").getNodes(), 0);
+        Assert.assertEquals(reports.get("test_transform/images/images_by_handler").getValues(), 2);
+        Assert.assertEquals(reports.get("test_transform/images/images_by_handler").getEngine(),
+            Explanation.PathEngine.NONE);
+        Assert.assertTrue(explanation.toString().contains("test_transform src [_src] SCALAR"),
+            explanation.toString());
+    }
+
+    @Test
+    public void testConfigAnalysis() throws Exception {
+        CompiledConfig config = CompiledConfig.compile(new ConfigLoader("/testdata/transformerconfig.json").call());
+        ConfigAnalysis analysis = new ConfigAnalyzer().analyze(config);
+        Assert.assertFalse(analysis.hasErrors());
+        Assert.assertEquals(analysis.getFindings().size(), 3, analysis.toString());
+
+        ConfigAnalysis.Finding variable = analysis.getFindings().get(0);
+        Assert.assertEquals(variable.getRule(), ConfigAnalyzer.Rule.CONSTANT_STRING_CALL);
+        Assert.assertEquals(variable.getSeverity(), ConfigAnalyzer.Severity.WARN);
+        Assert.assertEquals(variable.getDefinition(), "test_transform");
+        Assert.assertEquals(variable.getEntry(), 0);
+        Assert.assertNull(variable.getField());
+        Assert.assertEquals(analysis.getFindings().get(1).getPath(), "string('constant')");
+
+        // image_by_transform is mapped twice, the same way
+        ConfigAnalysis.Finding duplicate = analysis.getFindings().get(2);
+        Assert.assertEquals(duplicate.getRule(), ConfigAnalyzer.Rule.DUPLICATE_ENTRY);
+        Assert.assertEquals(duplicate.getEntry(), 15);
+        Assert.assertEquals(duplicate.getField(), "image_by_transform");
+
+        Map<String, Object> report = mapper.readValue(analysis.toJson(), Map.class);
+        List<Map<String, Object>> findings = (List<Map<String, Object>>) report.get("findings");
+        Assert.assertEquals(findings.size(), 3);
+        Assert.assertEquals(findings.get(2).get("rule"), "DUPLICATE_ENTRY");
+        Assert.assertEquals(findings.get(2).get("entry"), 15);
+
+        ConfigAnalyzer analyzer = new ConfigAnalyzer().setSeverity(ConfigAnalyzer.Rule.CONSTANT_STRING_CALL,
+            ConfigAnalyzer.Severity.IGNORE).setSeverity(ConfigAnalyzer.Rule.DUPLICATE_ENTRY,
+            ConfigAnalyzer.Severity.ERROR);
+        analysis = analyzer.analyze(config);
+        Assert.assertEquals(analysis.getFindings().size(), 1);
+        Assert.assertTrue(analysis.hasErrors());
+
+        ConfigRegistry registry = new ConfigRegistry(ConfigRegistry.DEFAULT_MAXIMUM_WEIGHT, false, analyzer);
+        try {
+            registry.get("/testdata/transformerconfig.json");
+            Assert.fail("the duplicate entry should have rejected the config");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            Assert.assertTrue(e.getCause().getMessage().contains("DUPLICATE_ENTRY"), e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testConfigAnalysisOfRepeatedDefinitions() {
+        Config.Entry images = new Config.Entry();
+        images.setField("images_by_transform");
+        images.setPath("images");
+        images.setDefinition("image_filter");
+        Config.Entry src = new Config.Entry();
+        src.setField("src");
+        src.setPath("//src");
+        src.setVariable("src_value");
+        Config.Entry filtered = new Config.Entry();
+        filtered.setField("image_by_transform");
+        filtered.setPath("image[url != '']");
+        filtered.setDefinition("image_filter");
+        Config.Definition message = new Config.Definition();
+        message.setProto(TransformTestProtos.TransformedMessage.class.getName());
+        message.setTransforms(Arrays.asList(images, src, filtered));
+
+        Config.Entry url = new Config.Entry();
+        url.setField("url");
+        url.setPath("url[. != '']");
+        Config.Entry type = new Config.Entry();
+        type.setField("type");
+        type.setPath("type[last()]");
+        Config.Definition image = new Config.Definition();
+        image.setProto(TransformTestProtos.ContentImage.class.getName());
+        image.setTransforms(Arrays.asList(url, type));
+
+        Config config = new Config();
+        config.definitions = new LinkedHashMap<String, Config.Definition>();
+        config.definitions.put("message_transform", message);
+        config.definitions.put("image_filter", image);
+
+        List<ConfigAnalysis.Finding> findings = new ConfigAnalyzer().analyze(CompiledConfig.compile(config))
+                        .getFindings();
+        Assert.assertEquals(findings.size(), 3, findings.toString());
+        Assert.assertEquals(findings.get(0).getRule(), ConfigAnalyzer.Rule.DESCENDANT_AXIS);
+        Assert.assertEquals(findings.get(1).getRule(), ConfigAnalyzer.Rule.UNUSED_VARIABLE);
+        Assert.assertEquals(findings.get(1).getEntry(), 1);
+        // the predicate of image[url != ''] is evaluated once per message, the one of url[. != ''] once per image
+        Assert.assertEquals(findings.get(2).getRule(), ConfigAnalyzer.Rule.FILTER_IN_REPEATED_DEFINITION);
+        Assert.assertEquals(findings.get(2).getDefinition(), "image_filter");
+        Assert.assertEquals(findings.get(2).getField(), "url");
+
+        // a handler is given the variables, so it may read the one no path reads
+        Config.Entry timestamp = new Config.Entry();
+        timestamp.setField("ts_update");
+        timestamp.setPath("ts_update");
+        timestamp.setHandler("com.yahoo.xpathproto.handler.TimeStampHandler");
+        message.setTransforms(Arrays.asList(images, src, filtered, timestamp));
+        findings = new ConfigAnalyzer().analyze(CompiledConfig.compile(config)).getFindings();
+        Assert.assertEquals(findings.size(), 2, findings.toString());
+        Assert.assertEquals(findings.get(0).getRule(), ConfigAnalyzer.Rule.DESCENDANT_AXIS);
+        Assert.assertEquals(findings.get(1).getRule(), ConfigAnalyzer.Rule.FILTER_IN_REPEATED_DEFINITION);
+    }
+
     @Test
     public void testRfcTimestampError() {
         try {
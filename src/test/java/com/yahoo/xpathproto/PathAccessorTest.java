@@ -0,0 +1,79 @@
+/*
+Copyright 2014 Yahoo! Inc.
+Copyrights licensed under the BSD License. See the accompanying LICENSE file for terms.
+*/
+
+package com.yahoo.xpathproto;
+
+import org.apache.commons.jxpath.JXPathContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class PathAccessorTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testSimplePathsOnly() {
+        Assert.assertNotNull(PathAccessor.compile("_src"));
+        Assert.assertNotNull(PathAccessor.compile("src/path"));
+        Assert.assertNull(PathAccessor.compile("$var_src"));
+        Assert.assertNull(PathAccessor.compile("."));
+        Assert.assertNull(PathAccessor.compile("rss/channel/item[1]"));
+        Assert.assertNull(PathAccessor.compile("string('constant')"));
+        Assert.assertNull(PathAccessor.compile("//url"));
+        Assert.assertNull(PathAccessor.compile("../src"));
+        Assert.assertNull(PathAccessor.compile("@name"));
+        Assert.assertNull(PathAccessor.compile("div"));
+    }
+
+    @Test
+    public void testMatchesJXPath() throws Exception {
+        InputStream tdatastream = PathAccessorTest.class.getResourceAsStream("/testdata/transformerdata.json");
+        Map<String, Object> tdata = mapper.readValue(tdatastream, Map.class);
+        tdata.put("null_value", null);
+        tdata.put("with_nulls", Arrays.asList("a", null, "b"));
+        tdata.put("nested", Collections.singletonMap("null_value", null));
+
+        JXPathContext context = JXPathContext.newContext(tdata);
+        context.setLenient(true);
+
+        for (String path : Arrays.asList("_src", "src/path", "int_value", "str_values", "images", "image/url",
+                        "missing", "missing/child", "null_value", "null_value/child", "with_nulls",
+                        "nested/null_value")) {
+            PathAccessor accessor = PathAccessor.compile(path);
+            Assert.assertEquals(accessor.getValue(tdata), context.getValue(path), path);
+            Assert.assertEquals(toList(accessor.iterate(tdata)), toList(context.iterate(path)), path);
+            Assert.assertEquals(toList(accessor.iterate(tdata)), context.selectNodes(path), path);
+        }
+    }
+
+    @Test
+    public void testFallsBackOffMaps() {
+        Map<String, Object> data = Collections.<String, Object>singletonMap("images", Arrays.asList(
+                        Collections.singletonMap("url", "image1"), Collections.singletonMap("url", "image2")));
+
+        Assert.assertSame(PathAccessor.compile("images/url").getValue(data), PathAccessor.UNRESOLVED);
+        Assert.assertNull(PathAccessor.compile("images/url").iterate(data));
+        Assert.assertSame(PathAccessor.compile("url").getValue("a bean"), PathAccessor.UNRESOLVED);
+        Assert.assertSame(PathAccessor.compile("images/url/child").getValue(data), PathAccessor.UNRESOLVED);
+    }
+
+    private static List<Object> toList(Iterator iterator) {
+        List<Object> list = new ArrayList<>();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+}
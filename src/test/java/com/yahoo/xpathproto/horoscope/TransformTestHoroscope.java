@@ -12,12 +12,16 @@ import org.xml.sax.SAXException;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Iterator;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.Message;
+import com.google.protobuf.UninitializedMessageException;
 import com.yahoo.xpathproto.ProtoBuilder;
 
 public class TransformTestHoroscope {
@@ -45,6 +49,81 @@ public class TransformTestHoroscope {
         Assert.assertEquals(builder.getPublishDate(), "Tue, 07 May 2013 00:00:00 +0000");
     }
 
+    @Test
+    public void testHoroscopeItemStream() throws Exception {
+        String body =
+            "<rss version=\"2.0\"><channel><title>Yahoo! Astrology</title>"
+                + "<item><id>ARI</id><sign>ARI</sign><label>Aries</label><title>Daily Overview for Aries</title>"
+                + "<link>http://shine.yahoo.com/horoscope/aries/</link>"
+                + "<pubDate>Tue, 07 May 2013 00:00:00 +0000</pubDate>"
+                + "<description><![CDATA[ Aries <b>text</b> ]]></description></item>"
+                + "<item><id>TAU</id><sign>TAU</sign><label>Taurus</label><title>Daily Overview for Taurus</title>"
+                + "<link>http://shine.yahoo.com/horoscope/taurus/</link>"
+                + "<pubDate>Wed, 08 May 2013 00:00:00 +0000</pubDate>"
+                + "<description>Taurus <!-- comment -->text</description></item>"
+                + "<item><title>Item without the required fields</title></item>"
+                + "</channel></rss>";
+
+        ProtoBuilder transformer = new ProtoBuilder("/testdata/transform_horoscope_config.json", "rss_item_transform");
+        Iterator<Message> messages =
+            transformer.buildFromXml(new ByteArrayInputStream(body.getBytes("UTF-8")), "rss/channel/item");
+
+        HoroscopeSnippetProtos.HoroscopeSnippet aries = (HoroscopeSnippetProtos.HoroscopeSnippet) messages.next();
+        Assert.assertEquals(aries.getId(), "ARI");
+        Assert.assertEquals(aries.getTitle(), "Daily Overview for Aries");
+        Assert.assertEquals(aries.getExtendedLink(), "http://shine.yahoo.com/horoscope/aries/");
+        Assert.assertEquals(aries.getSummary().getText(), "Aries <b>text</b>");
+
+        HoroscopeSnippetProtos.HoroscopeSnippet taurus = (HoroscopeSnippetProtos.HoroscopeSnippet) messages.next();
+        Assert.assertEquals(taurus.getLabel(), "Taurus");
+        Assert.assertEquals(taurus.getPublishDate(), "Wed, 08 May 2013 00:00:00 +0000");
+        // text nodes are trimmed by JXPath, the same as for a parsed Document
+        Assert.assertEquals(taurus.getSummary().getText(), "Taurustext");
+
+        ProtoBuilder documentTransformer = new ProtoBuilder("/testdata/transform_horoscope_config.json",
+            "rss_transform");
+        Message fromDocument = documentTransformer.builder(loadXml(body)).setField(
+            HoroscopeSnippetProtos.HoroscopeSnippet.getDescriptor().findFieldByName("ts_update"), aries.getTsUpdate())
+            .build();
+        Assert.assertEquals(aries, fromDocument);
+
+        try {
+            messages.next();
+            Assert.fail("An item without the required fields cannot be built");
+        } catch (UninitializedMessageException e) {
+            // expected
+        }
+        Assert.assertFalse(messages.hasNext());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testHoroscopeItemStreamRequiresPlainPath() {
+        new ProtoBuilder("/testdata/transform_horoscope_config.json", "rss_item_transform").buildFromXml(
+            new ByteArrayInputStream(new byte[0]), "rss/channel/item[1]");
+    }
+
+    @Test
+    public void testHoroscopeItemStreamDoesNotExpandEntities() {
+        StringBuilder body = new StringBuilder("<?xml version=\"1.0\"?><!DOCTYPE rss [<!ENTITY lol0 \"lol\">");
+        for (int i = 1; i < 4; i++) {
+            body.append("<!ENTITY lol").append(i).append(" \"");
+            for (int j = 0; j < 10; j++) {
+                body.append("&lol").append(i - 1).append(';');
+            }
+            body.append("\">");
+        }
+        body.append("]><rss><channel><item><title>&lol3;</title></item></channel></rss>");
+
+        Iterator<Message> messages = new ProtoBuilder("/testdata/transform_horoscope_config.json",
+            "rss_item_transform").buildFromXml(new ByteArrayInputStream(body.toString().getBytes()), "rss/channel/item");
+        try {
+            messages.next();
+            Assert.fail("Entities declared in a DTD must not be expanded");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof XMLStreamException, e.toString());
+        }
+    }
+
     private Document loadXml(String body) throws ParserConfigurationException, IOException, SAXException {
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         factory.setNamespaceAware(true);